@@ -7,12 +7,15 @@
 package xuan.yun;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 
 import xuan.yun.core.Env;
 import xuan.yun.core.FileInfo;
 import xuan.yun.core.LinkCheckerCore;
+import xuan.yun.core.RunStatistics;
 import xuan.yun.core.intf.CoreStateListener;
 
 public class LinkChecker {
@@ -29,17 +32,25 @@ public class LinkChecker {
 			Env.getLogger().setLevel(Level.WARNING);
 			
 			// the list to store the broken links
-			final List<String> brokenLinks = new ArrayList<String>();
+			final List<String> brokenLinks = Collections.synchronizedList(new ArrayList<String>());
 			
 			// create and start the core
 			final LinkCheckerCore core = new LinkCheckerCore(args[0]);
+			if (args.length > 1) {
+				// crawl the pages on the same host to given depth
+				try {
+					core.setMaxDepth(Integer.parseInt(args[1]));
+				} catch (NumberFormatException e) {
+					Env.getLogger().warning("Invalid crawl depth: " + args[1]);
+				}
+			}
 			core.addCoreStateListener(new CoreStateListener() {
 				private void showProgress() {
 					System.out.print(String.format(Env.getResourceBundle().getString("command.line.progress.format"), 
 							core.getWorkingLinksCount() + core.getBrokenLinksCount(), core.getTotalLinksCount()));
 				}
 				public void linkCheckFailed(FileInfo info) {
-					brokenLinks.add(info.getUrl());
+					brokenLinks.add(info.getFailureReason() == null ? info.getUrl() : info.getUrl() + " (" + info.getFailureReason() + ")");
 					showProgress();
 				}
 				public void linkCheckPassed(FileInfo info) {
@@ -57,6 +68,37 @@ public class LinkChecker {
 							System.out.println(link);
 						}
 					}
+					showStatistics();
+				}
+				private void showStatistics() {
+					final RunStatistics stats = core.getRunStatistics();
+					stats.sampleHeapSize();
+					final double seconds = Math.max(core.getElapsedTime(), 1) / 1000.0;
+					System.out.println(String.format(Env.getResourceBundle().getString("command.line.result.statistics.format"), 
+							stats.getLinksCount(), seconds, stats.getLinksCount() / seconds, core.getDownloadSize() / 1024.0 / seconds, 
+							stats.getLatencyPercentile(50), stats.getLatencyPercentile(99), stats.getPeakHeapSize() / 1024 / 1024));
+					// the host that took longest to resolve
+					String slowestHost = null;
+					long slowestTime = -1;
+					final Map<String, Long> resolveTimes = core.getHostResolveTimes();
+					for (Map.Entry<String, Long> entry : resolveTimes.entrySet()) {
+						if (entry.getValue() > slowestTime) {
+							slowestHost = entry.getKey();
+							slowestTime = entry.getValue();
+						}
+					}
+					if (slowestHost != null) {
+						System.out.println(String.format(Env.getResourceBundle().getString("command.line.result.dns.format"), 
+								resolveTimes.size(), slowestHost, slowestTime));
+					}
+					// the adaptive connection limits that the hosts end with
+					final StringBuilder limits = new StringBuilder();
+					for (Map.Entry<String, Integer> entry : core.getHostConnectionLimits().entrySet()) {
+						limits.append(limits.length() == 0 ? "" : ", ").append(entry.getKey()).append(' ').append(entry.getValue());
+					}
+					if (limits.length() > 0) {
+						System.out.println(String.format(Env.getResourceBundle().getString("command.line.result.limits.format"), limits));
+					}
 				}
 				public void inputURLBroken() {
 					System.out.println(Env.getResourceBundle().getString("command.line.result.input.url.broken"));
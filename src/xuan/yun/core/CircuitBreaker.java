@@ -0,0 +1,195 @@
+/**
+ *  CircuitBreaker stops sending requests to a host (an origin, host and port) after it fails to connect several times in a row.
+ *  The breaker of a host is closed (requests allowed), open (requests fail fast),
+ *  or half open (one trial request decides if it closes or opens again)
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class CircuitBreaker {
+
+	public static enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	/**
+	 * The breaker state of a host
+	 */
+	private static class HostBreaker {
+		State state = State.CLOSED;
+		int failureCount = 0;	// connection failures in a row
+		long openTime;
+		boolean trialSent = false;	// if the trial request of half open state is in flight
+		String lastFailure;
+	}
+
+	private final ConcurrentMap<String, HostBreaker> breakers = new ConcurrentHashMap<String, HostBreaker>();
+
+	private final int failureThreshold;
+	private final long openDuration;
+
+	/**
+	 * Create breaker with given limits
+	 *
+	 * @param failureThreshold
+	 * 		connection failures in a row that open the breaker of a host
+	 * @param openDuration
+	 * 		time (ms) before a trial request is allowed to an open host
+	 */
+	public CircuitBreaker(int failureThreshold, long openDuration) {
+		super();
+		this.failureThreshold = failureThreshold;
+		this.openDuration = openDuration;
+	}
+
+	/**
+	 * Check if a request can be sent to given host.
+	 * An open breaker lets one trial request through after the open duration
+	 *
+	 * @param host
+	 * @return
+	 */
+	public boolean allowRequest(String host) {
+		final HostBreaker breaker = breakers.get(host);
+		if (breaker == null) {
+			return true;
+		}
+		synchronized (breaker) {
+			switch (breaker.state) {
+			case OPEN:
+				if (System.currentTimeMillis() - breaker.openTime < openDuration) {
+					return false;
+				}
+				breaker.state = State.HALF_OPEN;
+				breaker.trialSent = true;
+				Env.getLogger().info("Circuit breaker of " + host + " is half open, sending a trial request.");
+				return true;
+			case HALF_OPEN:
+				if (breaker.trialSent) {
+					return false;
+				}
+				breaker.trialSent = true;
+				return true;
+			default:
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Will be called when the host responds, the host is reachable whatever the status is
+	 *
+	 * @param host
+	 */
+	public void onResponse(String host) {
+		final HostBreaker breaker = breakers.get(host);
+		if (breaker == null) {
+			return;
+		}
+		synchronized (breaker) {
+			if (breaker.state != State.CLOSED) {
+				Env.getLogger().info("Circuit breaker of " + host + " is closed, the host is back.");
+			}
+			breaker.state = State.CLOSED;
+			breaker.failureCount = 0;
+			breaker.trialSent = false;
+		}
+	}
+
+	/**
+	 * Will be called when a request to the host fails without response.
+	 * Only the failures to reach the host (refused, unresolved, timeout) are counted, 
+	 * other failures show that the host is reachable
+	 *
+	 * @param host
+	 * @param e
+	 */
+	public void onFailure(String host, Exception e) {
+		if (!isConnectFailure(e)) {
+			onResponse(host);
+			return;
+		}
+		HostBreaker breaker = breakers.get(host);
+		if (breaker == null) {
+			final HostBreaker newBreaker = new HostBreaker();
+			breaker = breakers.putIfAbsent(host, newBreaker);
+			if (breaker == null) {
+				breaker = newBreaker;
+			}
+		}
+		synchronized (breaker) {
+			breaker.failureCount ++;
+			breaker.lastFailure = e.getClass().getSimpleName() + (e.getMessage() == null ? "" : ": " + e.getMessage());
+			if (breaker.state == State.HALF_OPEN || (breaker.state == State.CLOSED && breaker.failureCount >= failureThreshold)) {
+				breaker.state = State.OPEN;
+				breaker.openTime = System.currentTimeMillis();
+				breaker.trialSent = false;
+				Env.getLogger().warning("Circuit breaker of " + host + " is open after " + breaker.failureCount + " connection failures.");
+			}
+		}
+	}
+
+	/**
+	 * Return the reason that the requests to given host are not allowed
+	 *
+	 * @param host
+	 * @return
+	 */
+	public String getFailureReason(String host) {
+		final HostBreaker breaker = breakers.get(host);
+		if (breaker == null) {
+			return null;
+		}
+		synchronized (breaker) {
+			return "Host " + host + " is unreachable, skipped after " + breaker.failureCount + " connection failures (last: " + breaker.lastFailure + ")";
+		}
+	}
+
+	/**
+	 * Return the breaker state of given host
+	 *
+	 * @param host
+	 * @return
+	 */
+	public State getState(String host) {
+		final HostBreaker breaker = breakers.get(host);
+		if (breaker == null) {
+			return State.CLOSED;
+		}
+		synchronized (breaker) {
+			return breaker.state;
+		}
+	}
+
+	/**
+	 * Return the origin (host:port) of given URL, the breakers are kept for each origin
+	 * 
+	 * @param url
+	 * @return
+	 */
+	public static String getOrigin(String url) {
+		try {
+			final URI uri = new URI(url);
+			final int port = uri.getPort() != -1 ? uri.getPort() : ("https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80);
+			return (uri.getHost() == null ? "" : uri.getHost().toLowerCase()) + ":" + port;
+		} catch (Exception e) {
+			return "";
+		}
+	}
+
+	private static boolean isConnectFailure(Exception e) {
+		// HttpTimeoutException of java.net.http is not available on old JRE
+		return e instanceof ConnectException || e instanceof NoRouteToHostException || e instanceof UnknownHostException 
+				|| e instanceof SocketTimeoutException || e.getClass().getSimpleName().endsWith("TimeoutException");
+	}
+}
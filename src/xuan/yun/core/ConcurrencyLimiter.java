@@ -0,0 +1,196 @@
+/**
+ *  ConcurrencyLimiter adjusts the allowed connections of each host with AIMD (additive increase, multiplicative decrease), 
+ *  from the observed latency, timeouts and overload responses (429, 503).
+ *  A host starts at the initial limit and grows by one connection per window of responses, up to the maximum limit.
+ *  The limit is cut at most once per window, the responses to the requests sent before a cut are not counted again
+ *  
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.net.SocketTimeoutException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class ConcurrencyLimiter {
+
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+	private static final int HTTP_UNAVAILABLE = 503;
+	
+	private static final double OVERLOAD_DECREASE = 0.5;	// limit factor on timeout or overload response
+	private static final double LATENCY_DECREASE = 0.9;		// limit factor when the latency grows
+	private static final int LATENCY_TOLERANCE = 2;			// the latency grows if it is this times of the baseline
+	private static final long LATENCY_SLACK = 50;			// ms, the latency below baseline + slack never counts as grown
+	private static final double BASELINE_WEIGHT = 0.2;		// weight of a window in the baseline latency
+	private static final int MIN_WINDOW_SIZE = 4;			// responses in a window at least
+
+	/**
+	 * The limit state of a host
+	 */
+	private static class HostLimit {
+		int limit;
+		long baselineLatency = -1;	// ms, smoothed average latency of the windows, -1 before the first window
+		int windowCount = 0;		// responses in current window
+		long windowLatency = 0;		// total latency of current window
+		long cutTime = 0;			// when the limit was cut last time
+		HostLimit(int limit) {
+			this.limit = limit;
+		}
+	}
+	
+	private final ConcurrentMap<String, HostLimit> hostLimits = new ConcurrentHashMap<String, HostLimit>();
+	
+	private final int initialLimit;
+	private volatile int maxLimit;
+
+	/**
+	 * Create limiter with given limits
+	 * 
+	 * @param initialLimit
+	 * 		connections of a host before it responds
+	 * @param maxLimit
+	 * 		maximum connections of each host
+	 */
+	public ConcurrencyLimiter(int initialLimit, int maxLimit) {
+		super();
+		this.initialLimit = Math.max(initialLimit, 1);
+		this.maxLimit = maxLimit;
+	}
+	
+	/**
+	 * Return the current connection limit of given host
+	 * 
+	 * @param host
+	 * @return
+	 */
+	public int getLimit(String host) {
+		final HostLimit hostLimit = hostLimits.get(host);
+		if (hostLimit == null) {
+			return Math.min(initialLimit, maxLimit);
+		}
+		synchronized (hostLimit) {
+			return hostLimit.limit;
+		}
+	}
+	
+	/**
+	 * Return the current connection limits of the hosts that are requested
+	 * 
+	 * @return
+	 */
+	public Map<String, Integer> getLimits() {
+		final Map<String, Integer> limits = new LinkedHashMap<String, Integer>();
+		for (String host : hostLimits.keySet()) {
+			limits.put(host, getLimit(host));
+		}
+		return limits;
+	}
+	
+	public void setMaxLimit(int maxLimit) {
+		this.maxLimit = maxLimit;
+		for (HostLimit hostLimit : hostLimits.values()) {
+			synchronized (hostLimit) {
+				hostLimit.limit = Math.min(hostLimit.limit, maxLimit);
+			}
+		}
+	}
+
+	/**
+	 * Will be called when the host responds
+	 * 
+	 * @param host
+	 * @param statusCode
+	 * @param latency
+	 * 		time (ms) from sending the request to receiving the response
+	 */
+	public void onResponse(String host, int statusCode, long latency) {
+		final HostLimit hostLimit = getHostLimit(host);
+		synchronized (hostLimit) {
+			if (System.currentTimeMillis() - latency < hostLimit.cutTime) {
+				// sent before last cut, it tells nothing about current limit
+				return;
+			}
+			if (statusCode == HTTP_TOO_MANY_REQUESTS || statusCode == HTTP_UNAVAILABLE) {
+				decrease(host, hostLimit, OVERLOAD_DECREASE, "HTTP " + statusCode);
+				return;
+			}
+			hostLimit.windowCount ++;
+			hostLimit.windowLatency += latency;
+			if (hostLimit.windowCount < Math.max(hostLimit.limit, MIN_WINDOW_SIZE)) {
+				return;
+			}
+			// the window is full, compare its average latency with the baseline
+			final long windowLatency = hostLimit.windowLatency / hostLimit.windowCount;
+			hostLimit.windowCount = 0;
+			hostLimit.windowLatency = 0;
+			final long baseline = hostLimit.baselineLatency;
+			hostLimit.baselineLatency = baseline == -1 ? windowLatency : Math.round(baseline + (windowLatency - baseline) * BASELINE_WEIGHT);
+			if (baseline != -1 && windowLatency > baseline * LATENCY_TOLERANCE && windowLatency > baseline + LATENCY_SLACK) {
+				decrease(host, hostLimit, LATENCY_DECREASE, "latency " + windowLatency + " ms, baseline " + baseline + " ms");
+			} else if (hostLimit.limit < maxLimit) {
+				// one more connection per window
+				hostLimit.limit ++;
+				Env.getLogger().info("Connection limit of " + host + " is increased to " + hostLimit.limit + " (latency " + windowLatency + " ms)");
+			}
+		}
+	}
+	
+	/**
+	 * Will be called when the request to the host fails without response
+	 * 
+	 * @param host
+	 * @param e
+	 */
+	public void onFailure(String host, Exception e) {
+		if (!isTimeout(e)) {
+			// other failures, such as refused connection, say nothing about the load
+			return;
+		}
+		final HostLimit hostLimit = getHostLimit(host);
+		synchronized (hostLimit) {
+			// a request that times out within READ_TIMEOUT after last cut was sent before it
+			if (System.currentTimeMillis() - hostLimit.cutTime >= Env.getIntegerSetting(Env.READ_TIMEOUT)) {
+				decrease(host, hostLimit, OVERLOAD_DECREASE, "timeout");
+			}
+		}
+	}
+	
+	private HostLimit getHostLimit(String host) {
+		HostLimit hostLimit = hostLimits.get(host);
+		if (hostLimit == null) {
+			final HostLimit newLimit = new HostLimit(Math.min(initialLimit, maxLimit));
+			hostLimit = hostLimits.putIfAbsent(host, newLimit);
+			if (hostLimit == null) {
+				hostLimit = newLimit;
+			}
+		}
+		return hostLimit;
+	}
+	
+	/**
+	 * Decrease the limit and start a new window, must be called with the host limit locked
+	 * 
+	 * @param host
+	 * @param hostLimit
+	 * @param factor
+	 * @param reason
+	 */
+	private void decrease(String host, HostLimit hostLimit, double factor, String reason) {
+		final int oldLimit = hostLimit.limit;
+		hostLimit.limit = Math.max((int)(hostLimit.limit * factor), 1);
+		hostLimit.windowCount = 0;
+		hostLimit.windowLatency = 0;
+		hostLimit.cutTime = System.currentTimeMillis();
+		if (hostLimit.limit != oldLimit) {
+			Env.getLogger().info("Connection limit of " + host + " is decreased to " + hostLimit.limit + " (" + reason + ")");
+		}
+	}
+	
+	private static boolean isTimeout(Exception e) {
+		// HttpTimeoutException of java.net.http is not available on old JRE
+		return e instanceof SocketTimeoutException || e.getClass().getSimpleName().endsWith("TimeoutException");
+	}
+}
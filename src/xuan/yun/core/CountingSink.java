@@ -0,0 +1,22 @@
+/**
+ *  CountingSink discards the downloaded data, the data is counted by the download manager
+ *  
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.nio.ByteBuffer;
+
+import xuan.yun.core.intf.DataSink;
+
+public class CountingSink implements DataSink {
+
+	public void write(long position, ByteBuffer data) {
+		data.position(data.limit());
+	}
+
+	public void close() {
+		// nothing to release
+	}
+}
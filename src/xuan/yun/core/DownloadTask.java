@@ -19,14 +19,30 @@ public class DownloadTask {
 	private String type;
 	private long fileSize;
 	
-	// block info (start, pos, end)
+	// block info (start, pos, end), the end may be moved by other thread that steals the block tail
 	private long start;
-	private long current;
-	private long end;		// -1 means unknown
+	private volatile long current;
+	private volatile long end;		// -1 means unknown, otherwise inclusive
 	
 	// counter for failure
 	private int failureCount;
 	
+	// crawl depth of the page whose links will be checked, -1 if the file is not a page to parse
+	private int pageDepth = -1;
+	
+	// extractor to find the links in page while it is downloading
+	private LinkExtractor linkExtractor;
+	
+	// the run of the core that queued the task
+	private volatile int runId;
+	
+	/**
+	 * Create task for given URL
+	 * 
+	 * @param url
+	 * @param targetFilePath
+	 * 		the file to store the data, null if the data is discarded
+	 */
 	public DownloadTask(String url, String targetFilePath) {
 		this.url = url;
 		this.tarPath = targetFilePath;
@@ -56,7 +72,7 @@ public class DownloadTask {
 		return current;
 	}
 
-	public void setCurrent(long current) {
+	public synchronized void setCurrent(long current) {
 		this.current = current;
 	}
 
@@ -64,9 +80,43 @@ public class DownloadTask {
 		return end;
 	}
 
-	public void setEnd(long end) {
+	public synchronized void setEnd(long end) {
 		this.end = end;
 	}
+	
+	/**
+	 * Move current position forward for the data read, the data beyond the end of block is dropped
+	 * 
+	 * @param length
+	 * 		the length of data read at current position
+	 * @return the length of data inside the block
+	 */
+	public synchronized int advance(int length) {
+		int dataLength = length;
+		if (end >= 0 && current + length > end + 1) {
+			dataLength = (int)Math.max(end + 1 - current, 0);
+		}
+		current += dataLength;
+		return dataLength;
+	}
+	
+	/**
+	 * Return if all data of the block is downloaded, a block with unknown end is never finished
+	 * 
+	 * @return
+	 */
+	public synchronized boolean isFinished() {
+		return end >= 0 && current > end;
+	}
+	
+	/**
+	 * Return the size of data not downloaded yet, -1 if the end is unknown
+	 * 
+	 * @return
+	 */
+	public synchronized long getRemainSize() {
+		return end >= 0 ? Math.max(end + 1 - current, 0) : -1;
+	}
 
 	public long getStart() {
 		return start;
@@ -88,20 +138,57 @@ public class DownloadTask {
 		this.failureCount = failureCount;
 	}
 
+	public int getPageDepth() {
+		return pageDepth;
+	}
+
+	public void setPageDepth(int pageDepth) {
+		this.pageDepth = pageDepth;
+	}
+	
+	public LinkExtractor getLinkExtractor() {
+		return linkExtractor;
+	}
+
+	public void setLinkExtractor(LinkExtractor linkExtractor) {
+		this.linkExtractor = linkExtractor;
+	}
+	
+	public boolean isPage() {
+		return pageDepth >= 0;
+	}
+	
+	public int getRunId() {
+		return runId;
+	}
+
+	public void setRunId(int runId) {
+		this.runId = runId;
+	}
+
 	/**
-	 * Split the task into two tasks
+	 * Split the remaining half of the block into a new task, the task that is downloading keeps the first half
 	 * 
+	 * @param minSize
+	 * 		the minimum size of the new task
 	 * @return
-	 * 		the new task
+	 * 		the new task, null if the block is too small to split
 	 */
-	public DownloadTask splitTask() {
+	public synchronized DownloadTask splitTask(long minSize) {
+		final long remainSize = getRemainSize();
+		if (remainSize < 0 || remainSize / 2 < Math.max(minSize, 1)) {
+			return null;
+		}
 		final String oldTaskDesc = toString();
 		final DownloadTask task = new DownloadTask(getUrl(), getTarPath());
-		final long splitPos = (getCurrent() + getEnd()) / 2;
+		final long splitPos = end - remainSize / 2;
 		task.setStart(splitPos + 1);
 		task.setCurrent(splitPos + 1);
-		task.setEnd(getEnd());
-		setEnd(splitPos);
+		task.setEnd(end);
+		task.setType(type);
+		task.setFileSize(fileSize);
+		task.setRunId(runId);
+		end = splitPos;
 		Env.getLogger().info(oldTaskDesc + " is splited to " + toString() + " and " + task);
 		return task;
 	}
@@ -1,140 +1,295 @@
 /**
- *  DownloadThread is a thread to take and execute DownloadTask 
+ *  DownloadThread is a thread to take and execute DownloadTask. 
+ *  A pooled thread takes the tasks until it is retired, a virtual thread runs the only task given to it
  *  
  *  Author: Xuan Yun (gdxuanyun@yahoo.com)
  *  All Rights Reserved
  */
 package xuan.yun.core;
 
-import java.io.BufferedInputStream;
-import java.io.File;
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.net.URL;
-import java.net.URLConnection;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
 
 import xuan.yun.core.Env;
+import xuan.yun.core.intf.DataSink;
 import xuan.yun.core.intf.DownloadManager;
 
-public class DownloadThread extends Thread {
+public class DownloadThread implements Runnable {
 
 	private static int threadId = 0;
 	
-	private int remainSplitThreshold = Env.getIntegerSetting(Env.DOWNLOAD_REMAIN_SPLIT_THRESHOLD);
-	
 	private DownloadManager manager;
 	
-	private DownloadTask task;
+	private volatile DownloadTask task;
+	
+	private final DownloadTask assignedTask;	// the only task of a virtual thread, null for a pooled thread
+	
+	private volatile boolean retired = false;	// the thread exits after current task if it is retired
+	
+	// reused by all tasks of this thread, allocated by the first task. It is a heap buffer, not a direct one: 
+	// the body is an InputStream, so the data lands in a byte array first in any case, and the link extractor reads that array
+	private ByteBuffer buffer = null;
+	
+	private final Thread thread;
 
+	/**
+	 * Create a pooled platform thread which takes the tasks from manager
+	 * 
+	 * @param mgr
+	 */
 	public DownloadThread(DownloadManager mgr) {
 		super();
 		manager = mgr;
-		setName("Thread #" + threadId);
-		threadId ++;
+		assignedTask = null;
+		thread = new Thread(this, "Thread #" + nextThreadId());
+	}
+
+	/**
+	 * Create a virtual thread which runs only given task, 
+	 * it is a platform thread if the virtual threads are not supported
+	 * 
+	 * @param mgr
+	 * @param task
+	 */
+	public DownloadThread(DownloadManager mgr, DownloadTask task) {
+		super();
+		manager = mgr;
+		assignedTask = task;
+		this.task = task;
+		thread = VirtualThreads.newThread("Virtual Thread #" + nextThreadId(), this, false);
+	}
+	
+	private static synchronized int nextThreadId() {
+		return threadId ++;
 	}
 
 	public void run() {
-		// always try to get a task to run
-		while (manager.isRunning()) {
-			task = manager.requestForDownloadTask();
-			if (task == null) {
-				continue;
+		try {
+			if (assignedTask != null) {
+				task = assignedTask;
+				runTask();
+				return;
 			}
-			Env.getLogger().info(getName() + " took task " + task);
-			
-			// run the task
-			boolean taskFinished = false;
-			RandomAccessFile out = null;
-			try {
-				// remote source file
-				final URL url = new URL(task.getUrl());
-				final URLConnection conn = url.openConnection();
-				conn.setConnectTimeout(Env.getIntegerSetting(Env.CONNECTION_TIMEOUT));
-				conn.setReadTimeout(Env.getIntegerSetting(Env.READ_TIMEOUT));
-				conn.setAllowUserInteraction(true);
-				if (task.getEnd() != -1) {
-					conn.setRequestProperty("Range", "bytes=" + task.getCurrent() + "-" + task.getEnd());
+			// always try to get a task to run
+			while (manager.isRunning() && !retired) {
+				task = manager.requestForDownloadTask();
+				if (task == null) {
+					continue;
 				}
-				final BufferedInputStream in = new BufferedInputStream(conn.getInputStream());
-				
-				// local target file
-				out = new RandomAccessFile(new File(task.getTarPath()), "rw");
-                out.seek(task.getCurrent());
+				runTask();
+			}
+		} finally {
+			manager.onDownloadThreadExit(this);
+		}
+	}
+	
+	/**
+	 * Run current task and return it to manager
+	 */
+	private void runTask() {
+		Env.getLogger().info(getName() + " took task " + task);
+		if (buffer == null) {
+			buffer = ByteBuffer.allocate(Math.max(Env.getIntegerSetting(Env.DOWNLOAD_BUFFER_SIZE), 1024));
+		}
+		// run the task
+		final DownloadTask runningTask = task;
+		boolean taskFinished = false;
+		DataSink out = null;
+		TransportResponse response = null;
+		try {
+			// remote source file
+			final Map<String, String> headers = new HashMap<String, String>();
+			if (task.getEnd() != -1) {
+				headers.put("Range", "bytes=" + task.getCurrent() + "-" + task.getEnd());
+			} else if (task.getCurrent() != task.getStart()) {
+				// can not resume without range, download from the beginning again
+				task.setCurrent(task.getStart());
+				if (task.getLinkExtractor() != null) {
+					task.getLinkExtractor().reset();
+				}
+			}
+			final long requestTime = System.currentTimeMillis();
+			try {
+				response = manager.getHttpTransport().send("GET", task.getUrl(), headers);
+			} catch (IOException e) {
+				manager.onRequestFailed(task.getUrl(), e);
+				throw e;
+			}
+			manager.onResponseReceived(task.getUrl(), response.getStatusCode(), System.currentTimeMillis() - requestTime);
+			if (response.getStatusCode() == HttpURLConnection.HTTP_NOT_FOUND || response.getStatusCode() == HttpURLConnection.HTTP_GONE) {
+				throw new FileNotFoundException(task.getUrl());
+			} else if (response.getStatusCode() < 200 || response.getStatusCode() >= 400) {
+				throw new IOException("Server returned HTTP response code: " + response.getStatusCode() + " for URL: " + task.getUrl());
+			}
+			final InputStream body = response.getBody();
+			if (task.getEnd() != -1 && task.getCurrent() > 0 && response.getStatusCode() != HttpURLConnection.HTTP_PARTIAL) {
+				// the server ignored the range and sent the whole file, skip the data before the block
+				skipFully(body, task.getCurrent());
+			}
+			// local target file, the data is only counted if the file is not kept.
+			// a block of a preallocated file is written into its own mapped region
+			if (task.getTarPath() == null) {
+				out = new CountingSink();
+			} else if (task.getEnd() >= 0 && task.getFileSize() > 0) {
+				out = new MappedSink(task.getTarPath(), task.getCurrent(), Math.min(task.getEnd(), task.getFileSize() - 1));
+			} else {
+				out = new FileSink(task.getTarPath());
+			}
                 
-                // task loop
-				long len;
-				byte[] buff = new byte[1024];
-				while (task.getEnd() == -1 || task.getCurrent() < task.getEnd()) {
-					// read data
-					len = in.read(buff, 0, buff.length);
-				    if (len == -1) {
-				    	break;
-				    }
-				    
-				    // calculate new position
-				    long newPos = task.getCurrent() + len;
-				    if (task.getEnd() >= 0 && newPos > task.getEnd()) {
-				    	newPos = task.getEnd() + 1;
-                    }
-				    
-				    // write data to file
-				    final int dataLength = (int)(newPos - task.getCurrent());
-				    out.write(buff, 0, dataLength);
-				    
-				    // move task current position
-				    task.setCurrent(newPos);
-				    
-				    // report progress
-				    manager.onDataDownloaded(task, dataLength);
-				    
-				    // split the task, if the task has a known end, not too small, and there is idle download thread
-				    if (task.getEnd() > 0 && task.getEnd() - task.getCurrent() > remainSplitThreshold && manager.hasIdleDownloadThread()) {
-				    	manager.addDownloadTask(task.splitTask());
-                    }
+                // task loop, the end of task may be moved back by an idle thread that steals the tail
+			final long requestedEnd = task.getEnd();
+			boolean endOfStream = false;
+			final byte[] data = buffer.array();
+			while (!endOfStream && !task.isFinished()) {
+				// fill the buffer, do not read beyond the end of block
+				final long remainSize = task.getRemainSize();
+				final int limit = remainSize >= 0 && remainSize < data.length ? (int)remainSize : data.length;
+				int length = 0;
+				while (length < limit) {
+					final int count = body.read(data, length, limit - length);
+					if (count == -1) {
+						endOfStream = true;
+						break;
+					}
+					length += count;
 				}
-				out.close();
-				in.close();
-				taskFinished = true;
-			} catch (FileNotFoundException fnfe) {
-				Env.getLogger().severe(getName() + ": " + fnfe.getMessage());
-				final DownloadTask latestTask = task;
-				task = null;
+			    if (length == 0) {
+			    	break;
+			    }
+			    
+			    // move task current position, drop the data beyond the end
+			    final long position = task.getCurrent();
+			    final int dataLength = task.advance(length);
+			    if (dataLength == 0) {
+			    	break;
+			    }
+			    
+			    // find the links in page as soon as the data arrives
+			    if (task.getLinkExtractor() != null) {
+			    	task.getLinkExtractor().feed(data, 0, dataLength);
+			    }
+			    
+			    // write data to file
+			    buffer.clear();
+			    buffer.limit(dataLength);
+			    out.write(position, buffer);
+			    
+			    // report progress, once per buffer
+			    manager.onDataDownloaded(task, dataLength);
+			}
+			if (endOfStream && !task.isFinished() && task.getEnd() != -1) {
+				// the connection is closed before the end of block, HttpURLConnection does not report it. The rest is requested again
+				throw new EOFException("Unexpected end of stream at " + task.getCurrent() + " before the end of block " + task.getEnd());
+			}
+			out.close();
+			if (task.getEnd() != requestedEnd) {
+				// the tail is stolen, do not read the rest of the response
+				response.abort();
+			} else {
+				body.close();
+			}
+			taskFinished = true;
+		} catch (FileNotFoundException fnfe) {
+			Env.getLogger().severe(getName() + ": " + fnfe.getMessage());
+			final DownloadTask latestTask = task;
+			task = null;
+			manager.onDownloadTerminated(latestTask);
+		} catch (IOException ioe) {
+			Env.getLogger().info(getName() + " met " + ioe.getClass().getSimpleName() + ": " + ioe.getMessage());
+			// Return the task to manager if failure count < MAX_FAILURES_COUNT
+			task.setFailureCount(task.getFailureCount() + 1);
+			Env.getLogger().info(getName() + " gave up " + task);
+			final DownloadTask latestTask = task;
+			task = null;
+			final int maxFailures = Env.getIntegerSetting(Env.MAX_FAILURES_COUNT);
+			if (latestTask.getFailureCount() < maxFailures) {
+				final long retryDelay = RetryScheduler.getRetryDelay(latestTask.getFailureCount(), response);
+				Env.getLogger().info("Retry " + latestTask + " in " + retryDelay + " ms");
+				manager.retryDownloadTask(latestTask, retryDelay);
+			} else {
+				Env.getLogger().info("Too many failures, terminate the download for " + latestTask.getUrl());
 				manager.onDownloadTerminated(latestTask);
-			} catch (IOException ioe) {
-				Env.getLogger().info(getName() + " met " + ioe.getClass().getSimpleName() + ": " + ioe.getMessage());
-				// Return the task to manager if failure count < MAX_FAILURES_COUNT
-				task.setFailureCount(task.getFailureCount() + 1);
-				Env.getLogger().info(getName() + " gave up " + task);
-				final DownloadTask latestTask = task;
-				task = null;
-				final int maxFailures = Env.getIntegerSetting(Env.MAX_FAILURES_COUNT);
-				if (latestTask.getFailureCount() < maxFailures) {
-					manager.addDownloadTask(latestTask);
-				} else {
-					Env.getLogger().info("Too many failures, terminate the download for " + latestTask.getUrl());
-					manager.onDownloadTerminated(latestTask);
-				}
-			} catch (Exception e) {
-				Env.getLogger().severe(e.getMessage());
-			} finally {
-				if (out != null) {
-					try {
-						out.close();
-					} catch (IOException e) {}
-				}
 			}
-			
-			// task is finished
-			if (taskFinished) {
-				Env.getLogger().info(getName() + " finished task " + task);
-				final DownloadTask latestTask = task;
-				task = null;
-				manager.onDownloadTaskFinished(latestTask);
+		} catch (Exception e) {
+			Env.getLogger().severe(getName() + " met " + e.getClass().getSimpleName() + ": " + e.getMessage());
+			// terminate the task, otherwise its file is never finished
+			final DownloadTask latestTask = task;
+			task = null;
+			if (latestTask != null) {
+				manager.onDownloadTerminated(latestTask);
+			}
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {}
+			}
+			if (response != null) {
+				response.close();
 			}
+			manager.releaseDownloadTask(runningTask);
+		}
+		
+		// task is finished
+		if (taskFinished) {
+			Env.getLogger().info(getName() + " finished task " + task);
+			final DownloadTask latestTask = task;
+			task = null;
+			manager.onDownloadTaskFinished(latestTask);
 		}
 	}
 	
+	/**
+	 * Skip given length of data in the stream
+	 * 
+	 * @param in
+	 * @param length
+	 * @throws IOException
+	 */
+	private static void skipFully(InputStream in, long length) throws IOException {
+		long remain = length;
+		while (remain > 0) {
+			final long skipped = in.skip(remain);
+			if (skipped <= 0) {
+				if (in.read() == -1) {
+					throw new EOFException("Unexpected end of stream while skipping " + length + " bytes.");
+				}
+				remain --;
+			} else {
+				remain -= skipped;
+			}
+		}
+	}
+	
+	/**
+	 * Let the thread exit after current task, an idle thread exits immediately
+	 */
+	public void retire() {
+		retired = true;
+		if (task == null) {
+			// wake up the thread waiting for a task
+			interrupt();
+		}
+	}
+	
+	public void start() {
+		thread.start();
+	}
+	
+	public void interrupt() {
+		thread.interrupt();
+	}
+	
+	public String getName() {
+		return thread.getName();
+	}
+	
 	public boolean isRunningTask() {
 		return (task != null);
 	}
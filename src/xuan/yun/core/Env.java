@@ -27,8 +27,34 @@ public class Env {
 	public static final String DOWNLOAD_MAX_THREAD_COUNT = "download.max.thread.count";
 	public static final String DOWNLOAD_MIN_BLOCK_SIZE = "download.min.block.size";
 	public static final String DOWNLOAD_REMAIN_SPLIT_THRESHOLD = "download.remain.split.threshold";
+	public static final String DOWNLOAD_BUFFER_SIZE = "download.buffer.size";
 	public static final String FILE_INFO_QUERY_MAX_RETRIES = "file.info.query.max.retries";
 	public static final String MAX_FAILURES_COUNT = "max.failures.count";
+	public static final String RETRY_BASE_DELAY = "retry.base.delay";
+	public static final String RETRY_MAX_DELAY = "retry.max.delay";
+	public static final String CHECK_VERIFY_ONLY = "check.verify.only";
+	public static final String PROBE_MAX_THREAD_COUNT = "probe.max.thread.count";
+	public static final String PROBE_QUEUE_CAPACITY = "probe.queue.capacity";
+	public static final String PROBE_ENGINE = "probe.engine";
+	public static final String PROBE_NIO_MAX_CONNECTIONS = "probe.nio.max.connections";
+	public static final String THREAD_MODE = "thread.mode";
+	public static final String VIRTUAL_THREAD_MAX_CONCURRENCY = "virtual.thread.max.concurrency";
+	public static final String CRAWL_MAX_DEPTH = "crawl.max.depth";
+	public static final String CRAWL_MAX_PAGES = "crawl.max.pages";
+	public static final String HOST_MAX_CONNECTIONS = "host.max.connections";
+	public static final String HOST_REQUEST_INTERVAL = "host.request.interval";
+	public static final String HOST_ADAPTIVE_CONCURRENCY = "host.adaptive.concurrency";
+	public static final String HOST_INITIAL_CONNECTIONS = "host.initial.connections";
+	public static final String HOST_PREWARM_COUNT = "host.prewarm.count";
+	public static final String HOST_BREAKER_FAILURES = "host.breaker.failures";
+	public static final String HOST_BREAKER_OPEN_TIME = "host.breaker.open.time";
+	public static final String DNS_RESOLVER_THREADS = "dns.resolver.threads";
+	public static final String DNS_CACHE_TTL = "dns.cache.ttl";
+	public static final String HTTP_TRANSPORT = "http.transport";
+	public static final String LINK_CACHE_FILE = "link.cache.file";
+	public static final String LINK_CACHE_TTL = "link.cache.ttl";
+	public static final String DOWNLOAD_KEEP_FILES = "download.keep.files";
+	public static final String EVENT_BATCH_INTERVAL = "event.batch.interval";
 
 	private static final Logger LOGGER = Logger.getLogger(Env.class.getName());
 	
@@ -108,8 +134,34 @@ public class Env {
 		defaults.put(DOWNLOAD_MAX_THREAD_COUNT, "5");
 		defaults.put(DOWNLOAD_MIN_BLOCK_SIZE, "65535");
 		defaults.put(DOWNLOAD_REMAIN_SPLIT_THRESHOLD, "65535");
+		defaults.put(DOWNLOAD_BUFFER_SIZE, "65536");	// the heap buffer of each download thread
 		defaults.put(FILE_INFO_QUERY_MAX_RETRIES, "3");
 		defaults.put(MAX_FAILURES_COUNT, "5");
+		defaults.put(RETRY_BASE_DELAY, "500");
+		defaults.put(RETRY_MAX_DELAY, "30000");
+		defaults.put(CHECK_VERIFY_ONLY, "true");
+		defaults.put(PROBE_MAX_THREAD_COUNT, "10");
+		defaults.put(PROBE_QUEUE_CAPACITY, "0");
+		defaults.put(PROBE_ENGINE, "threads");
+		defaults.put(PROBE_NIO_MAX_CONNECTIONS, "1000");
+		defaults.put(THREAD_MODE, "platform");
+		defaults.put(VIRTUAL_THREAD_MAX_CONCURRENCY, "1000");
+		defaults.put(CRAWL_MAX_DEPTH, "1");
+		defaults.put(CRAWL_MAX_PAGES, "1000");
+		defaults.put(HOST_MAX_CONNECTIONS, "6");
+		defaults.put(HOST_REQUEST_INTERVAL, "0");
+		defaults.put(HOST_ADAPTIVE_CONCURRENCY, "false");
+		defaults.put(HOST_INITIAL_CONNECTIONS, "2");
+		defaults.put(HOST_PREWARM_COUNT, "0");
+		defaults.put(HOST_BREAKER_FAILURES, "5");
+		defaults.put(HOST_BREAKER_OPEN_TIME, "30000");
+		defaults.put(DNS_RESOLVER_THREADS, "8");
+		defaults.put(DNS_CACHE_TTL, "30000");
+		defaults.put(HTTP_TRANSPORT, "urlconnection");
+		defaults.put(LINK_CACHE_FILE, "");
+		defaults.put(LINK_CACHE_TTL, "86400000");
+		defaults.put(DOWNLOAD_KEEP_FILES, "false");
+		defaults.put(EVENT_BATCH_INTERVAL, "100");
 		return defaults;
 	}
 	
@@ -122,6 +174,14 @@ public class Env {
 		}
 	}
 	
+	public static String getSetting(String key) {
+		return settings.getProperty(key);
+	}
+	
+	public static boolean getBooleanSetting(String key) {
+		return Boolean.parseBoolean(settings.getProperty(key));
+	}
+	
 	public static void putSetting(String key, Object value) {
 		settings.put(key, value.toString());
 	}
@@ -0,0 +1,103 @@
+/**
+ *  EventBatcher collects the changed links and delivers them to CoreBatchListener on a fixed tick
+ *  
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import xuan.yun.core.intf.CoreBatchListener;
+
+public class EventBatcher {
+
+	private static int threadId = 0;
+
+	private final List<CoreBatchListener> listeners = new CopyOnWriteArrayList<CoreBatchListener>();
+
+	// the links changed since last tick, guarded by itself
+	private Set<FileInfo> changedLinks = new LinkedHashSet<FileInfo>();
+
+	private Thread thread;
+
+	public void addListener(CoreBatchListener l) {
+		listeners.add(l);
+	}
+
+	public void removeListener(CoreBatchListener l) {
+		listeners.remove(l);
+	}
+
+	/**
+	 * Mark the link as changed, it will be delivered on next tick
+	 * 
+	 * @param info
+	 */
+	public void linkChanged(FileInfo info) {
+		synchronized (this) {
+			changedLinks.add(info);
+		}
+	}
+
+	/**
+	 * Start to deliver the changes on given tick
+	 * 
+	 * @param interval
+	 * 		the tick (ms)
+	 */
+	public synchronized void start(final long interval) {
+		if (thread != null) {
+			return;
+		}
+		thread = new Thread("Event Batcher #" + (threadId ++)) {
+			public void run() {
+				while (!isInterrupted()) {
+					try {
+						Thread.sleep(interval);
+					} catch (InterruptedException e) {
+						break;
+					}
+					flush();
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop the tick, the pending changes are delivered in current thread
+	 */
+	public void stop() {
+		synchronized (this) {
+			if (thread != null) {
+				thread.interrupt();
+				thread = null;
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * Deliver the pending changes
+	 */
+	private void flush() {
+		final Set<FileInfo> links;
+		synchronized (this) {
+			if (changedLinks.isEmpty()) {
+				return;
+			}
+			links = changedLinks;
+			changedLinks = new LinkedHashSet<FileInfo>();
+		}
+		final List<FileInfo> linkList = new ArrayList<FileInfo>(links);
+		for (CoreBatchListener l : listeners) {
+			l.linksChanged(linkList);
+		}
+	}
+}
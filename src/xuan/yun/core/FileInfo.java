@@ -6,6 +6,8 @@
  */
 package xuan.yun.core;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * The information for a remote file
  */
@@ -19,15 +21,21 @@ public class FileInfo {
 	};
 	
 	private final String url;
-	private String type;
-	private long size;
-	private int statusCode;
+	private volatile String type;
+	private volatile long size;
+	private volatile int statusCode;
+	private volatile int depth;		// crawl depth, links in the input URL are 1
+	private volatile int index = -1;	// position in the links found, -1 if not found in any page
+	
+	private final AtomicLong downloadedSize = new AtomicLong();	// updated by the download threads concurrently
+	private volatile long startTime;
+	private volatile long usedTime;
+	
+	private volatile State state = State.INDETERMINATED;
 	
-	private long downloadedSize;
-	private long startTime;
-	private long usedTime;
+	private volatile String failureReason;	// why the link is broken, null if the status code tells
 	
-	private State state = State.INDETERMINATED;
+	private volatile boolean notModified;	// the info is taken from the link cache, the link is not modified since last run
 	
 	public FileInfo(String url) {
 		super();
@@ -63,12 +71,37 @@ public class FileInfo {
 		return url;
 	}
 
+	public int getDepth() {
+		return depth;
+	}
+
+	public void setDepth(int depth) {
+		this.depth = depth;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
 	public long getDownloadedSize() {
-		return downloadedSize;
+		return downloadedSize.get();
 	}
 
 	public void setDownloadedSize(long size) {
-		this.downloadedSize = size;
+		downloadedSize.set(size);
+	}
+
+	/**
+	 * Add the size of data downloaded
+	 * 
+	 * @param dataLength
+	 */
+	public void addDownloadedSize(long dataLength) {
+		downloadedSize.addAndGet(dataLength);
 	}
 
 	public long getStartTime() {
@@ -95,6 +128,22 @@ public class FileInfo {
 		this.state = state;
 	}
 
+	public String getFailureReason() {
+		return failureReason;
+	}
+
+	public void setFailureReason(String failureReason) {
+		this.failureReason = failureReason;
+	}
+
+	public boolean isNotModified() {
+		return notModified;
+	}
+
+	public void setNotModified(boolean notModified) {
+		this.notModified = notModified;
+	}
+
 	public String toString() {
 		return "<FileInfo url='" + url + "' type='" + type + "' size='" + size + "' status='" + statusCode 
 			+ "' downloadedSize='" + downloadedSize + "' usedTime='" + usedTime + "'/>";
@@ -0,0 +1,39 @@
+/**
+ *  FileSink writes the downloaded data into the target file
+ *  
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import xuan.yun.core.intf.DataSink;
+
+public class FileSink implements DataSink {
+
+	private final RandomAccessFile file;
+	private final FileChannel out;
+
+	public FileSink(String filePath) throws IOException {
+		super();
+		file = new RandomAccessFile(new File(filePath), "rw");
+		out = file.getChannel();
+	}
+
+	public void write(long position, ByteBuffer data) throws IOException {
+		// positional write, a retried task may write from its block start again
+		long pos = position;
+		while (data.hasRemaining()) {
+			pos += out.write(data, pos);
+		}
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ *  HostPermits counts the connections of each host, shared by all the schedulers of a run,
+ *  so that the probes and the downloads together never exceed the allowed connections of a host,
+ *  or request it faster than the allowed interval. Each host is guarded by its own permit
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class HostPermits {
+
+	/**
+	 * The connection state of a host
+	 */
+	private static class HostPermit {
+		int activeCount;		// connections acquired and not released yet
+		long nextRequestTime;	// the earliest time to acquire next connection
+		boolean removed;		// if the permit is dropped from the map, a new one must be looked up
+	}
+
+	private final ConcurrentMap<String, HostPermit> permits = new ConcurrentHashMap<String, HostPermit>();
+
+	// the schedulers waiting for the connections, woken when a connection is released
+	private final List<HostScheduler<?>> schedulers = new CopyOnWriteArrayList<HostScheduler<?>>();
+
+	private volatile int maxConnectionsPerHost;
+	private volatile long requestInterval;
+
+	private volatile ConcurrencyLimiter limiter = null;	// adjusts the connections of each host, null if the connections are fixed
+
+	/**
+	 * Create permits with given politeness settings
+	 *
+	 * @param maxConnectionsPerHost
+	 * 		maximum number of connections acquired and not released for each host
+	 * @param requestInterval
+	 * 		minimum time (ms) between two connections acquired for the same host
+	 */
+	public HostPermits(int maxConnectionsPerHost, long requestInterval) {
+		super();
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.requestInterval = requestInterval;
+	}
+
+	/**
+	 * Try to acquire a connection of given host
+	 *
+	 * @param host
+	 * @return 0 if acquired, otherwise the time (ms) before the host can be requested again,
+	 * 		Long.MAX_VALUE if all connections of the host are taken
+	 */
+	public long tryAcquire(String host) {
+		while (true) {
+			final HostPermit permit = getPermit(host);
+			synchronized (permit) {
+				if (permit.removed) {
+					continue;
+				}
+				if (permit.activeCount >= getMaxConnections(host)) {
+					return Long.MAX_VALUE;
+				}
+				final long now = System.currentTimeMillis();
+				if (permit.nextRequestTime > now) {
+					return permit.nextRequestTime - now;
+				}
+				permit.activeCount ++;
+				permit.nextRequestTime = now + requestInterval;
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Release a connection of given host, the schedulers with work for the host are woken
+	 *
+	 * @param host
+	 */
+	public void release(String host) {
+		final HostPermit permit = permits.get(host);
+		if (permit == null) {
+			return;
+		}
+		synchronized (permit) {
+			permit.activeCount --;
+			if (permit.activeCount <= 0 && permit.nextRequestTime <= System.currentTimeMillis()) {
+				// nothing to remember for the host
+				permit.removed = true;
+				permits.remove(host, permit);
+			}
+		}
+		for (HostScheduler<?> scheduler : schedulers) {
+			scheduler.hostReleased(host);
+		}
+	}
+
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		wakeUpSchedulers();
+	}
+
+	public void setRequestInterval(long requestInterval) {
+		this.requestInterval = requestInterval;
+		wakeUpSchedulers();
+	}
+
+	/**
+	 * Let the limiter decide the connections of each host, instead of the fixed maxConnectionsPerHost
+	 *
+	 * @param limiter
+	 * 		null to use the fixed maxConnectionsPerHost
+	 */
+	public void setConcurrencyLimiter(ConcurrencyLimiter limiter) {
+		this.limiter = limiter;
+		wakeUpSchedulers();
+	}
+
+	/**
+	 * Register the scheduler to be woken when a connection is released
+	 *
+	 * @param scheduler
+	 */
+	void addScheduler(HostScheduler<?> scheduler) {
+		schedulers.add(scheduler);
+	}
+
+	private int getMaxConnections(String host) {
+		final ConcurrencyLimiter currentLimiter = limiter;
+		return currentLimiter == null ? maxConnectionsPerHost : currentLimiter.getLimit(host);
+	}
+
+	private HostPermit getPermit(String host) {
+		HostPermit permit = permits.get(host);
+		if (permit == null) {
+			final HostPermit newPermit = new HostPermit();
+			permit = permits.putIfAbsent(host, newPermit);
+			if (permit == null) {
+				permit = newPermit;
+			}
+		}
+		return permit;
+	}
+
+	private void wakeUpSchedulers() {
+		for (HostScheduler<?> scheduler : schedulers) {
+			scheduler.wakeUp();
+		}
+	}
+}
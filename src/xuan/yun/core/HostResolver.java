@@ -0,0 +1,252 @@
+/**
+ *  HostResolver resolves the hosts of the found links in parallel, before their requests are sent.
+ *  The addresses are cached for DNS_CACHE_TTL, the transports find them in the JVM address cache
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import xuan.yun.core.intf.HttpTransport;
+
+public class HostResolver {
+
+	/**
+	 * The resolution of a host, the addresses are set when the latch is released.
+	 * The callbacks are guarded by the resolution itself, they run once the latch is released
+	 */
+	private static class Resolution {
+		final CountDownLatch done = new CountDownLatch(1);
+		final List<Runnable> callbacks = new ArrayList<Runnable>();
+		volatile InetAddress[] addresses;
+		volatile UnknownHostException error;
+		volatile long resolveTime;	// ms
+		volatile long expireTime;
+	}
+
+	private static int threadId = 0;
+
+	private final ConcurrentMap<String, Resolution> resolutions = new ConcurrentHashMap<String, Resolution>();
+
+	private final ExecutorService executor;
+
+	private final long ttl;
+
+	/**
+	 * Create resolver with given limits
+	 *
+	 * @param threads
+	 * 		number of hosts resolved at the same time
+	 * @param ttl
+	 * 		time (ms) that a resolution is cached
+	 */
+	public HostResolver(int threads, long ttl) {
+		super();
+		this.ttl = ttl;
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, "Resolver #" + nextThreadId());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	private static synchronized int nextThreadId() {
+		return threadId ++;
+	}
+
+	/**
+	 * Start resolving given host in background, unless it is resolved or being resolved
+	 *
+	 * @param host
+	 */
+	public void prefetch(final String host) {
+		final Resolution resolution = startResolution(host);
+		if (resolution != null) {
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						resolve(host, resolution);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// the resolver is shut down, fail the resolution so that nobody waits for it
+				resolution.error = new UnknownHostException(host + " (resolver is shut down)");
+				resolve(host, resolution);
+			}
+		}
+	}
+
+	/**
+	 * Start resolving given host in background like prefetch(String), and run the callback when the host is resolved.
+	 * The callback runs on the resolver thread, or at once if the host is already resolved
+	 *
+	 * @param host
+	 * @param callback
+	 */
+	public void prefetch(String host, Runnable callback) {
+		prefetch(host);
+		final Resolution resolution = resolutions.get(host);
+		if (resolution != null) {
+			synchronized (resolution) {
+				if (resolution.done.getCount() > 0) {
+					resolution.callbacks.add(callback);
+					return;
+				}
+			}
+		}
+		callback.run();
+	}
+
+	/**
+	 * Return the cached addresses of given host, never wait for the DNS
+	 *
+	 * @param host
+	 * @return null if the host is not resolved yet, or its resolution is expired
+	 * @throws UnknownHostException
+	 * 		if the cached resolution failed
+	 */
+	public InetAddress[] getCachedAddresses(String host) throws UnknownHostException {
+		final Resolution resolution = resolutions.get(host);
+		if (resolution == null || resolution.done.getCount() > 0 || resolution.expireTime <= System.currentTimeMillis()) {
+			return null;
+		}
+		if (resolution.error != null) {
+			throw resolution.error;
+		}
+		return resolution.addresses;
+	}
+
+	/**
+	 * Stop the resolver threads once the queued resolutions are done, no new resolution is started
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Return the addresses of given host, wait if it is being resolved
+	 *
+	 * @param host
+	 * @return
+	 * @throws UnknownHostException
+	 */
+	public InetAddress[] resolve(String host) throws UnknownHostException {
+		Resolution resolution = startResolution(host);
+		if (resolution != null) {
+			resolve(host, resolution);
+		} else {
+			resolution = resolutions.get(host);
+			try {
+				resolution.done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new UnknownHostException(host + " (interrupted)");
+			}
+		}
+		if (resolution.error != null) {
+			throw resolution.error;
+		}
+		return resolution.addresses;
+	}
+
+	/**
+	 * Connect to the root of the host of given URL with a HEAD request,
+	 * the connection is kept alive by the transport for the following requests
+	 *
+	 * @param url
+	 * @param transport
+	 */
+	public void prewarm(final String url, final HttpTransport transport) {
+		if (executor.isShutdown()) {
+			return;
+		}
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					final URL u = new URL(url);
+					resolve(u.getHost().toLowerCase());
+					final long startTime = System.currentTimeMillis();
+					transport.send("HEAD", new URL(u, "/").toString(), new HashMap<String, String>()).close();
+					Env.getLogger().info("Connected to " + u.getHost() + " in " + (System.currentTimeMillis() - startTime) + " ms.");
+				} catch (Exception e) {
+					Env.getLogger().info("Can not prewarm connection for " + url + ": " + e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Register a new resolution of given host
+	 *
+	 * @param host
+	 * @return null if the host is resolved or being resolved
+	 */
+	private Resolution startResolution(String host) {
+		while (true) {
+			final Resolution existing = resolutions.get(host);
+			if (existing != null && (existing.done.getCount() > 0 || existing.expireTime > System.currentTimeMillis())) {
+				return null;
+			}
+			final Resolution resolution = new Resolution();
+			if (existing == null ? resolutions.putIfAbsent(host, resolution) == null : resolutions.replace(host, existing, resolution)) {
+				return resolution;
+			}
+		}
+	}
+
+	private void resolve(String host, Resolution resolution) {
+		final long startTime = System.currentTimeMillis();
+		try {
+			if (resolution.error == null) {
+				resolution.addresses = InetAddress.getAllByName(host);
+			}
+		} catch (UnknownHostException e) {
+			resolution.error = e;
+		} finally {
+			resolution.resolveTime = System.currentTimeMillis() - startTime;
+			resolution.expireTime = System.currentTimeMillis() + ttl;
+		}
+		final List<Runnable> callbacks;
+		synchronized (resolution) {
+			resolution.done.countDown();
+			callbacks = new ArrayList<Runnable>(resolution.callbacks);
+			resolution.callbacks.clear();
+		}
+		Env.getLogger().info("Resolved " + host + " in " + resolution.resolveTime + " ms" + (resolution.error == null ? "." : ", unknown host."));
+		for (Runnable callback : callbacks) {
+			callback.run();
+		}
+	}
+
+	/**
+	 * Return the resolution time (ms) of each resolved host
+	 *
+	 * @return
+	 */
+	public Map<String, Long> getResolveTimes() {
+		final Map<String, Long> times = new HashMap<String, Long>();
+		for (Map.Entry<String, Resolution> entry : resolutions.entrySet()) {
+			if (entry.getValue().done.getCount() == 0) {
+				times.put(entry.getKey(), entry.getValue().resolveTime);
+			}
+		}
+		return times;
+	}
+}
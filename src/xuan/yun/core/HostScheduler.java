@@ -0,0 +1,264 @@
+/**
+ *  HostScheduler queues the work per host, and hands it out round-robin across the hosts,
+ *  so that no host gets more than the allowed connections, or requests faster than the allowed interval.
+ *  The connections are counted by the HostPermits shared with the other schedulers, the lock only guards the queues.
+ *  Only the hosts with queued work and a free connection are kept ready, a host at its limit waits aside until a connection is released,
+ *  so taking an item does not scan the hosts
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class HostScheduler<T> {
+
+	/**
+	 * The queued work of a host
+	 */
+	private static class HostQueue<T> {
+		final String host;
+		final ArrayDeque<T> items = new ArrayDeque<T>();
+		State state = State.READY;
+		long readyTime;		// the time the host can be requested again, if it is delayed
+		HostQueue(String host) {
+			this.host = host;
+		}
+	}
+
+	/**
+	 * Where a host with queued items waits
+	 */
+	private static enum State {
+		READY,		// in readyHosts, may have a free connection
+		BLOCKED,	// all connections taken, ready again when one is released
+		DELAYED		// requested too recently, in delayedHosts until its ready time
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+
+	// the hosts that have queued items, the ready ones in round-robin order
+	private final Map<String, HostQueue<T>> hostQueues = new HashMap<String, HostQueue<T>>();
+	private final ArrayDeque<HostQueue<T>> readyHosts = new ArrayDeque<HostQueue<T>>();
+	private final PriorityQueue<HostQueue<T>> delayedHosts = new PriorityQueue<HostQueue<T>>(16, new Comparator<HostQueue<T>>() {
+		public int compare(HostQueue<T> q1, HostQueue<T> q2) {
+			return q1.readyTime < q2.readyTime ? -1 : (q1.readyTime == q2.readyTime ? 0 : 1);
+		}
+	});
+
+	private int queuedCount;
+
+	private final HostPermits permits;
+
+	/**
+	 * Create scheduler which takes the connections from given permits
+	 *
+	 * @param permits
+	 * 		the connections of each host, shared by the schedulers of a run
+	 */
+	public HostScheduler(HostPermits permits) {
+		super();
+		this.permits = permits;
+		permits.addScheduler(this);
+	}
+
+	/**
+	 * Return the host of given URL, empty string if the URL is malformed
+	 *
+	 * @param url
+	 * @return
+	 */
+	public static String getHost(String url) {
+		try {
+			final String host = new URI(url).getHost();
+			return host == null ? "" : host.toLowerCase();
+		} catch (Exception e) {
+			return "";
+		}
+	}
+
+	/**
+	 * Queue the item for given host
+	 *
+	 * @param host
+	 * @param item
+	 */
+	public void add(String host, T item) {
+		lock.lock();
+		try {
+			HostQueue<T> queue = hostQueues.get(host);
+			if (queue == null) {
+				queue = new HostQueue<T>(host);
+				hostQueues.put(host, queue);
+				readyHosts.addLast(queue);
+			}
+			queue.items.addLast(item);
+			queuedCount ++;
+			if (queue.state == State.READY) {
+				available.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Take the next item, wait until there is an item allowed to be handed out
+	 *
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public T take() throws InterruptedException {
+		return poll(-1);
+	}
+
+	/**
+	 * Take the next item, wait at most given time.
+	 * A connection of the host is acquired with the item, it must be released by release(String)
+	 *
+	 * @param timeout
+	 * 		maximum time (ms) to wait, -1 means forever
+	 * @return null if timeout
+	 * @throws InterruptedException
+	 */
+	public T poll(long timeout) throws InterruptedException {
+		long remain = timeout < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (true) {
+				final long now = System.currentTimeMillis();
+				while (!delayedHosts.isEmpty() && delayedHosts.peek().readyTime <= now) {
+					final HostQueue<T> queue = delayedHosts.poll();
+					queue.state = State.READY;
+					readyHosts.addLast(queue);
+				}
+				// a host without free connection is set aside, it is not tried again until it may have one
+				HostQueue<T> queue;
+				while ((queue = readyHosts.pollFirst()) != null) {
+					final long wait = permits.tryAcquire(queue.host);
+					if (wait == 0) {
+						final T item = queue.items.pollFirst();
+						queuedCount --;
+						if (queue.items.isEmpty()) {
+							hostQueues.remove(queue.host);
+						} else {
+							readyHosts.addLast(queue);
+						}
+						if (!readyHosts.isEmpty()) {
+							// pass the wake up on, another waiting consumer may take the rest
+							available.signal();
+						}
+						return item;
+					} else if (wait == Long.MAX_VALUE) {
+						queue.state = State.BLOCKED;
+					} else {
+						queue.state = State.DELAYED;
+						queue.readyTime = now + wait;
+						delayedHosts.add(queue);
+					}
+				}
+				if (remain <= 0) {
+					return null;
+				}
+				final long delay = delayedHosts.isEmpty() ? Long.MAX_VALUE : Math.max(delayedHosts.peek().readyTime - now, 1);
+				if (delay == Long.MAX_VALUE && timeout < 0) {
+					available.await();
+				} else {
+					final long waitTime = Math.min(remain, TimeUnit.MILLISECONDS.toNanos(delay));
+					final long left = available.awaitNanos(waitTime);
+					if (timeout >= 0) {
+						remain -= waitTime - Math.max(left, 0);
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Release the connection of given host, call this method when the item taken is done
+	 *
+	 * @param host
+	 */
+	public void release(String host) {
+		permits.release(host);
+	}
+
+	/**
+	 * Return the number of queued items
+	 *
+	 * @return
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return queuedCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Drop all queued items
+	 */
+	public void clear() {
+		lock.lock();
+		try {
+			hostQueues.clear();
+			readyHosts.clear();
+			delayedHosts.clear();
+			queuedCount = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Will be called by the permits when a connection of given host is released
+	 *
+	 * @param host
+	 */
+	void hostReleased(String host) {
+		lock.lock();
+		try {
+			final HostQueue<T> queue = hostQueues.get(host);
+			if (queue != null && queue.state == State.BLOCKED) {
+				queue.state = State.READY;
+				readyHosts.addLast(queue);
+				available.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wake up all waiting consumers, the politeness settings are changed so all hosts are tried again
+	 */
+	void wakeUp() {
+		lock.lock();
+		try {
+			delayedHosts.clear();
+			for (HostQueue<T> queue : hostQueues.values()) {
+				if (queue.state != State.READY) {
+					queue.state = State.READY;
+					readyHosts.addLast(queue);
+				}
+			}
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ *  HttpClientTransport sends the requests with java.net.http.HttpClient (JRE 11+),
+ *  the requests to the same HTTP/2 host share one connection
+ *  
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import xuan.yun.core.intf.HttpTransport;
+
+public class HttpClientTransport implements HttpTransport {
+
+	// closes the body streams that wait for data longer than READ_TIMEOUT, shared by all transports
+	private static final ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, "Read Watchdog");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	static {
+		WATCHDOG.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * The body stream with read timeout. HttpRequest.timeout() only limits the wait for the response headers, 
+	 * the stream is closed if a read waits longer than the timeout
+	 */
+	private static class TimedInputStream extends FilterInputStream {
+		private final long timeout;
+		private volatile boolean timedOut = false;
+
+		TimedInputStream(InputStream in, long timeout) {
+			super(in);
+			this.timeout = timeout;
+		}
+
+		public int read() throws IOException {
+			final ScheduledFuture<?> watch = startWatch();
+			try {
+				return checkTimeout(in.read());
+			} catch (IOException e) {
+				throw timedOut ? timeoutException() : e;
+			} finally {
+				watch.cancel(false);
+			}
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			final ScheduledFuture<?> watch = startWatch();
+			try {
+				return checkTimeout(in.read(b, off, len));
+			} catch (IOException e) {
+				throw timedOut ? timeoutException() : e;
+			} finally {
+				watch.cancel(false);
+			}
+		}
+
+		public long skip(long n) throws IOException {
+			final ScheduledFuture<?> watch = startWatch();
+			try {
+				return checkTimeout(in.skip(n));
+			} catch (IOException e) {
+				throw timedOut ? timeoutException() : e;
+			} finally {
+				watch.cancel(false);
+			}
+		}
+
+		private ScheduledFuture<?> startWatch() throws IOException {
+			if (timedOut) {
+				throw timeoutException();
+			}
+			return WATCHDOG.schedule(new Runnable() {
+				public void run() {
+					timedOut = true;
+					try {
+						in.close();
+					} catch (IOException e) {
+						// ignore
+					}
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+		}
+
+		private int checkTimeout(int result) throws IOException {
+			// the closed stream may end without exception
+			if (timedOut) {
+				throw timeoutException();
+			}
+			return result;
+		}
+
+		private long checkTimeout(long result) throws IOException {
+			if (timedOut) {
+				throw timeoutException();
+			}
+			return result;
+		}
+
+		private SocketTimeoutException timeoutException() {
+			return new SocketTimeoutException("Read timed out");
+		}
+	}
+
+	private final HttpClient client;
+
+	public HttpClientTransport() {
+		super();
+		client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(Duration.ofMillis(Env.getIntegerSetting(Env.CONNECTION_TIMEOUT)))
+				.build();
+	}
+
+	public TransportResponse send(String method, String url, Map<String, String> headers) throws IOException {
+		final HttpResponse<InputStream> response;
+		try {
+			final HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+					.timeout(Duration.ofMillis(Env.getIntegerSetting(Env.READ_TIMEOUT)))
+					.method(method, HttpRequest.BodyPublishers.noBody());
+			for (Map.Entry<String, String> header : headers.entrySet()) {
+				builder.header(header.getKey(), header.getValue());
+			}
+			response = client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid request for " + url + ": " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Request for " + url + " is interrupted.");
+		}
+		final Map<String, String> responseHeaders = new HashMap<String, String>();
+		for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+			if (!header.getValue().isEmpty()) {
+				responseHeaders.put(header.getKey().toLowerCase(), header.getValue().get(0));
+			}
+		}
+		return new TransportResponse(response.statusCode(), responseHeaders, 
+				new TimedInputStream(response.body(), Env.getIntegerSetting(Env.READ_TIMEOUT)));
+	}
+}
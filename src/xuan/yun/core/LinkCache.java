@@ -0,0 +1,205 @@
+/**
+ *  LinkCache keeps the validators (ETag, Last-Modified) of the checked links across runs,
+ *  so that the links can be checked with conditional requests next time.
+ *  An entry expires after LINK_CACHE_TTL, then the link is checked in full again
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class LinkCache {
+
+	/**
+	 * The cached info of a link
+	 */
+	public static class Entry {
+		private final int statusCode;
+		private final long size;
+		private final String type;
+		private final String etag;
+		private final String lastModified;
+		private final long cacheTime;	// ms
+
+		public Entry(int statusCode, long size, String type, String etag, String lastModified, long cacheTime) {
+			this.statusCode = statusCode;
+			this.size = size;
+			this.type = type;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.cacheTime = cacheTime;
+		}
+
+		public int getStatusCode() {
+			return statusCode;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		public long getCacheTime() {
+			return cacheTime;
+		}
+	}
+
+	private static final String FIELD_SEPARATOR = "\t";
+
+	private static LinkCache defaultCache = null;
+
+	private final File file;
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	private final long ttl;	// ms, 0 if the entries never expire
+
+	public LinkCache(File file) {
+		super();
+		this.file = file;
+		ttl = Env.getIntegerSetting(Env.LINK_CACHE_TTL);
+		load();
+	}
+
+	/**
+	 * Return the cache stored in LINK_CACHE_FILE, null if the cache is disabled
+	 *
+	 * @return
+	 */
+	public static synchronized LinkCache getDefault() {
+		final String fileName = Env.getSetting(Env.LINK_CACHE_FILE);
+		if (fileName == null || fileName.trim().length() == 0) {
+			return null;
+		}
+		if (defaultCache == null) {
+			defaultCache = new LinkCache(new File(Env.getCurrentDirectory(), fileName.trim()));
+		}
+		return defaultCache;
+	}
+
+	/**
+	 * Return the cached info of given URL, null if not cached or expired
+	 *
+	 * @param url
+	 * @return
+	 */
+	public Entry get(String url) {
+		final Entry entry = entries.get(url);
+		if (entry != null && isExpired(entry)) {
+			entries.remove(url);
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Cache the info of given link, the link is only cached if it has a validator
+	 *
+	 * @param info
+	 * @param etag
+	 * @param lastModified
+	 */
+	public void put(FileInfo info, String etag, String lastModified) {
+		if (etag == null && lastModified == null) {
+			entries.remove(info.getUrl());
+		} else {
+			entries.put(info.getUrl(), new Entry(info.getStatusCode(), info.getSize(), info.getType(), etag, lastModified, System.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * Remove the cached info of given URL
+	 *
+	 * @param url
+	 */
+	public void remove(String url) {
+		entries.remove(url);
+	}
+
+	/**
+	 * Load the cache file, the cache is empty if the file does not exist
+	 */
+	private void load() {
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			final Properties props = new Properties();
+			final InputStream fis = new FileInputStream(file);
+			try {
+				props.loadFromXML(fis);
+			} finally {
+				fis.close();
+			}
+			for (String url : props.stringPropertyNames()) {
+				final String[] fields = props.getProperty(url).split(FIELD_SEPARATOR, -1);
+				// the entries saved without cache time are dropped
+				if (fields.length == 6) {
+					final Entry entry = new Entry(Integer.parseInt(fields[0]), Long.parseLong(fields[1]),
+							emptyToNull(fields[2]), emptyToNull(fields[3]), emptyToNull(fields[4]), Long.parseLong(fields[5]));
+					if (!isExpired(entry)) {
+						entries.put(url, entry);
+					}
+				}
+			}
+		} catch (Exception e) {
+			Env.getLogger().warning("Can not load link cache " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Save the cache file
+	 */
+	public synchronized void save() {
+		final Properties props = new Properties();
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			final Entry e = entry.getValue();
+			props.setProperty(entry.getKey(), e.getStatusCode() + FIELD_SEPARATOR + e.getSize() + FIELD_SEPARATOR
+					+ nullToEmpty(e.getType()) + FIELD_SEPARATOR + nullToEmpty(e.getEtag()) + FIELD_SEPARATOR + nullToEmpty(e.getLastModified())
+					+ FIELD_SEPARATOR + e.getCacheTime());
+		}
+		try {
+			final OutputStream fos = new FileOutputStream(file);
+			try {
+				props.storeToXML(fos, "Link Checker cache");
+			} finally {
+				fos.close();
+			}
+		} catch (IOException e) {
+			Env.getLogger().warning("Can not save link cache " + file + ": " + e.getMessage());
+		}
+	}
+
+	private boolean isExpired(Entry entry) {
+		return ttl > 0 && System.currentTimeMillis() - entry.getCacheTime() >= ttl;
+	}
+
+	private static String emptyToNull(String s) {
+		return s.length() == 0 ? null : s;
+	}
+
+	private static String nullToEmpty(String s) {
+		return s == null ? "" : s;
+	}
+}
@@ -6,60 +6,149 @@
  */
 package xuan.yun.core;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URL;
-import java.net.URLConnection;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import xuan.yun.core.FileInfo.State;
+import xuan.yun.core.intf.CoreBatchListener;
 import xuan.yun.core.intf.CoreStateListener;
 import xuan.yun.core.intf.DownloadManager;
 import xuan.yun.core.intf.FileInfoCallback;
+import xuan.yun.core.intf.HttpTransport;
+import xuan.yun.core.intf.LinkCallback;
+import xuan.yun.core.intf.ResponseHandler;
 
 public class LinkCheckerCore implements DownloadManager {
 	
-	private static final Pattern LINK_REG = Pattern.compile("<a\\s[^>]*href\\s*=\\s*[\"\']?([^\"\' ]*)[\"\']?[^>]*>(.*?(?<!</a>))</a>", 
-			Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-
 	private static final Pattern PROTOCOL_REG = Pattern.compile("^[^:]+://", Pattern.CASE_INSENSITIVE);
 	
 	private static final Pattern FILE_REG = Pattern.compile("^.*\\.\\w{2,4}$", Pattern.CASE_INSENSITIVE);
 	
+	private static final long STEAL_INTERVAL = 100;	// ms, an idle download thread tries to steal a block this often
+	
 	private int maxThreads;		// maximum count of threads for downloading
 	
+	private boolean verifyOnly;		// only verify the links, do not download their content
+	
+	private boolean keepFiles;		// store the downloaded links in temporary files, instead of discarding the data
+	
 	private final String url;		// input URL (main URL)
-	private final String baseUrl;	// the base URL (for relative URL)
+	private final String host;		// host of the input URL, only pages on this host are crawled
 	
-	private long startTime = 0;		// the time that start the core
-	private long elapsedTime = 0;	// time used for downloading
-	private long downloadSize = 0;	// downloaded data size
+	private int maxDepth;	// maximum crawl depth, 1 means only the links in input URL are checked
+	private int maxPages;	// maximum number of pages to parse
 	
-	private boolean running = false;	// if the core is running
+	private volatile long startTime = 0;		// the time that start the core
+	private volatile long elapsedTime = 0;	// time used for downloading
+	private final AtomicLong downloadSize = new AtomicLong();	// downloaded data size
+	
+	private volatile boolean running = false;	// if the core is running
+	
+	private volatile int runId = 0;	// increased each time the core starts, the probes and the tasks of earlier runs are ignored
+	
+	private volatile boolean inputPageParsed = false;	// if all links in input URL are found
 
-	private List<DownloadTask> downloadTasks;	// task pool
+	private TaskScheduler scheduler;	// task pool
+	
+	private List<DownloadThread> downloadThreads;	// thread pool, resized by setMaxThreads while running
+	
+	private final boolean virtualThreads;	// run every probe and every block download on its own virtual thread
+	private Thread downloadDispatcher;	// starts a virtual thread for each download task, null unless virtualThreads
+	private Semaphore downloadPermits;	// bounds the virtual download threads
+	
+	private ProbeExecutor probeExecutor;	// executor for remote file info queries
+	
+	private volatile HostPermits hostPermits;	// connections of each host, shared by the probes and the downloads
+	
+	private volatile NioProbeEngine probeEngine;	// non-blocking engine for plain HTTP queries, null if PROBE_ENGINE is not "nio"
+	
+	private final HttpTransport transport;	// sends the HTTP requests
+	
+	private CircuitBreaker breaker;	// fails the links of unreachable hosts fast, null if HOST_BREAKER_FAILURES is 0
+	
+	private volatile RetryScheduler retryScheduler;	// runs the retries when their backoff delays expire
+	
+	private volatile HostResolver resolver;	// resolves the hosts of the found links in advance, null if DNS_RESOLVER_THREADS is 0
 	
-	private List<DownloadThread> downloadThreads;	// thread pool
+	private final ConcurrentMap<String, AtomicInteger> hostLinksCount = new ConcurrentHashMap<String, AtomicInteger>();	// links found for each host
+	private final Set<String> prewarmedHosts = Collections.synchronizedSet(new HashSet<String>());
 	
-	private Map<String, List<DownloadTask>> fileTasksMap; // the tasks for certain URL
+	private final ConcurrencyLimiter limiter;	// adjusts the connections per host, null if the connections are fixed
 	
-	private Map<String, FileInfo> fileInfoMap;	// the FileInfo objects for certain URL
+	private final LinkCache linkCache;	// validators of the links checked in last runs, null if disabled
+	
+	private ConcurrentMap<String, FileInfo> fileInfoMap;	// the FileInfo objects for certain URL
+	
+	private List<FileInfo> fileInfoList;	// the FileInfo objects in the order they are found, guarded by itself
+	
+	private volatile int totalLinksCount = 0;	// size of fileInfoList
+	
+	private Set<String> crawledPages;	// the URL of pages whose links are checked
+	
+	// link state counters, updated on each state transition
+	private final AtomicInteger uncheckedLinksCount = new AtomicInteger();	// links in INDETERMINATED state
+	private final AtomicInteger brokenLinksCount = new AtomicInteger();		// links in FAILED state
+	private final AtomicInteger workingLinksCount = new AtomicInteger();	// links in DOWNLOADED state
 
 	private List<CoreStateListener> listeners;	// listeners that observe the link state
 	
+	private EventBatcher eventBatcher;	// delivers the link changes periodically
+	
+	private RunStatistics statistics = new RunStatistics();	// latency and memory usage of the run
+	
+	// check the remote file info of the links found in pages
+	private final FileInfoCallback linkInfoCallback = new FileInfoCallback() {
+		public void fileInfoReceived(FileInfo info) {
+			if (info.getStatusCode() < 200 || info.getStatusCode() >= 300) {
+				// the link is broken
+				onLinkCheckFailed(info);
+			} else if (shouldCrawl(info)) {
+				// the page must be downloaded to check the links inside
+				downloadPage(info, info.getDepth());
+				Env.getLogger().info("Crawl page: " + info.getUrl());
+			} else if (verifyOnly || info.getUrl().equals(url) || info.isNotModified()) {
+				// the status is enough, no need to download the content.
+				// the main URL is downloaded as the input page already, 
+				// and the link not modified since last run was downloaded by then
+				onLinkCheckPassed(info);
+			} else {
+				// download the file for 2xx status code
+				if (keepFiles) {
+					final File tmpFile = createTemporaryFile();
+					if (tmpFile != null) {
+						downloadFile(info, tmpFile.getAbsolutePath());
+					} else {
+						onLinkCheckFailed(info);
+						return;
+					}
+				} else {
+					downloadFile(info, null);
+				}
+				Env.getLogger().info("Check link: " + info.getUrl());
+			}
+		}
+	};
+	
 	/**
 	 * Create instance for given URL, with maxThreads = DOWNLOAD_MAX_THREAD_COUNT
 	 * 
@@ -78,27 +167,80 @@ public class LinkCheckerCore implements DownloadManager {
 	public LinkCheckerCore(String urlStr, int maxThreads) {
 		super();
 		url = normalizeURL(urlStr);
-		baseUrl = getBaseURL(url);
+		host = getHost(url);
     	
 		setMaxThreads(maxThreads);
+		verifyOnly = Env.getBooleanSetting(Env.CHECK_VERIFY_ONLY);
+		keepFiles = Env.getBooleanSetting(Env.DOWNLOAD_KEEP_FILES);
+		maxDepth = Env.getIntegerSetting(Env.CRAWL_MAX_DEPTH);
+		maxPages = Env.getIntegerSetting(Env.CRAWL_MAX_PAGES);
 		
 		// listeners
-		listeners = new ArrayList<CoreStateListener>();
+		listeners = new CopyOnWriteArrayList<CoreStateListener>();
+		eventBatcher = new EventBatcher();
+		eventBatcher.addListener(new CoreBatchListener() {
+			public void linksChanged(List<FileInfo> changedLinks) {
+				// the state listeners get one downloading event per link in each tick
+				for (FileInfo info : changedLinks) {
+					if (info.getState() == State.INDETERMINATED && info.getDownloadedSize() > 0) {
+						for (CoreStateListener l : listeners) {
+							l.linkDownloading(info);
+						}
+					}
+				}
+			}
+		});
 		
 		// initialize the file info map
-		fileInfoMap = new LinkedHashMap<String, FileInfo>();
+		fileInfoMap = new ConcurrentHashMap<String, FileInfo>();
+		fileInfoList = new ArrayList<FileInfo>();
 		
-		// init the tasks map
-		fileTasksMap = new HashMap<String, List<DownloadTask>>();
+		// init the crawled pages set
+		crawledPages = Collections.synchronizedSet(new HashSet<String>());
 		
-		// initialize the thread pool
-		downloadThreads = new ArrayList<DownloadThread>(maxThreads);
-		for (int i = 0; i < maxThreads; i ++) {
-			downloadThreads.add(new DownloadThread(this));
-		}
+		// the thread pool is filled when the core starts
+		downloadThreads = new CopyOnWriteArrayList<DownloadThread>();
 		
-		// initialize the task pool
-		downloadTasks = new ArrayList<DownloadTask>();
+		// initialize the HTTP transport
+		transport = createTransport();
+		linkCache = LinkCache.getDefault();
+		
+		// the adaptive connections start at HOST_INITIAL_CONNECTIONS, HOST_MAX_CONNECTIONS becomes their upper bound
+		limiter = Env.getBooleanSetting(Env.HOST_ADAPTIVE_CONCURRENCY) 
+				? new ConcurrencyLimiter(Env.getIntegerSetting(Env.HOST_INITIAL_CONNECTIONS), Env.getIntegerSetting(Env.HOST_MAX_CONNECTIONS)) : null;
+		virtualThreads = VirtualThreads.isEnabled();
+		createSchedulers();
+	}
+	
+	/**
+	 * Create the probe executor and the task pool, they share the connections of each host.
+	 * The resolver and the retry scheduler are created with them, their threads are stopped with the core
+	 */
+	private void createSchedulers() {
+		retryScheduler = new RetryScheduler();
+		final int resolverThreads = Env.getIntegerSetting(Env.DNS_RESOLVER_THREADS);
+		resolver = resolverThreads > 0 ? new HostResolver(resolverThreads, Env.getIntegerSetting(Env.DNS_CACHE_TTL)) : null;
+		// the probes and the downloads share the connections of each host
+		hostPermits = new HostPermits(Env.getIntegerSetting(Env.HOST_MAX_CONNECTIONS), Env.getIntegerSetting(Env.HOST_REQUEST_INTERVAL));
+		hostPermits.setConcurrencyLimiter(limiter);
+		final int maxProbes = Env.getIntegerSetting(virtualThreads ? Env.VIRTUAL_THREAD_MAX_CONCURRENCY : Env.PROBE_MAX_THREAD_COUNT);
+		probeExecutor = new ProbeExecutor(maxProbes, Env.getIntegerSetting(Env.PROBE_QUEUE_CAPACITY), hostPermits, virtualThreads);
+		scheduler = new TaskScheduler(hostPermits);
+		probeEngine = null;
+		if ("nio".equalsIgnoreCase(Env.getSetting(Env.PROBE_ENGINE))) {
+			if (resolver == null) {
+				// the event loop must not wait for the DNS
+				Env.getLogger().warning("The non-blocking probe engine needs " + Env.DNS_RESOLVER_THREADS + " > 0, use the probe threads instead");
+			} else {
+				try {
+					probeEngine = new NioProbeEngine(Env.getIntegerSetting(Env.PROBE_NIO_MAX_CONNECTIONS), hostPermits, resolver);
+				} catch (IOException e) {
+					Env.getLogger().warning("Can not start the non-blocking probe engine, use the probe threads instead. " + e.getMessage());
+				}
+			}
+		}
+		final int breakerFailures = Env.getIntegerSetting(Env.HOST_BREAKER_FAILURES);
+		breaker = breakerFailures > 0 ? new CircuitBreaker(breakerFailures, Env.getIntegerSetting(Env.HOST_BREAKER_OPEN_TIME)) : null;
 	}
 	
 	/**
@@ -159,14 +301,92 @@ public class LinkCheckerCore implements DownloadManager {
 		}
 	}
 	
+	/**
+	 * Return the host of given URL, null if the URL is malformed
+	 * 
+	 * @param url
+	 * @return
+	 */
+	private String getHost(String url) {
+		try {
+			return new URI(url).getHost();
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Return the absolute URL of the link in the page with given base URL, without fragment
+	 * 
+	 * @param pageBaseUrl
+	 * @param link
+	 * @return
+	 * @throws URISyntaxException
+	 */
+	private String resolveLink(String pageBaseUrl, String link) throws URISyntaxException {
+		final URI uri = new URI(link);
+		final String absLink = uri.isAbsolute() ? link : new URI(pageBaseUrl).resolve(uri).toString();
+		final int fragmentPos = absLink.indexOf('#');
+		return fragmentPos == -1 ? absLink : absLink.substring(0, fragmentPos);
+	}
+	
+	/**
+	 * Return if the links in given file should be checked too. 
+	 * The page must be a HTML on the same host, within the crawl depth and the pages budget.
+	 * 
+	 * @param info
+	 * @return
+	 */
+	private boolean shouldCrawl(FileInfo info) {
+		if (info.getDepth() >= maxDepth || info.getType() == null || !info.getType().toLowerCase().contains("text/html")) {
+			return false;
+		}
+		final String linkHost = getHost(info.getUrl());
+		if (linkHost == null || !linkHost.equalsIgnoreCase(host)) {
+			return false;
+		}
+		synchronized (crawledPages) {
+			return crawledPages.size() < maxPages && crawledPages.add(info.getUrl());
+		}
+	}
+	
+	/**
+	 * Download the given page in a single task, the links inside will be checked while it is downloading.
+	 * The content is not stored, since the links are found from the data stream.
+	 * 
+	 * @param info
+	 * @param depth
+	 */
+	private void downloadPage(FileInfo info, final int depth) {
+		final String pageBaseUrl = getBaseURL(info.getUrl());
+		final int run = runId;
+		final DownloadTask task = new DownloadTask(info.getUrl(), null);
+		task.setStart(0);
+		task.setCurrent(0);
+		task.setEnd(-1);
+		task.setType(info.getType());
+		task.setFileSize(info.getSize());
+		task.setPageDepth(depth);
+		task.setLinkExtractor(new LinkExtractor(new LinkCallback() {
+			public void linkFound(String link) {
+				// a page of last run may still be read after the core is restarted
+				if (run == runId) {
+					checkLink(pageBaseUrl, depth, link);
+				}
+			}
+		}));
+		addDownloadTask(task);
+	}
+	
 	/**
 	 * Download the given URL, separate the file to certain blocks if needed
 	 * 
 	 * @param info
 	 * @param tarPath
+	 * 		the file to store the data, null if the data is discarded
 	 */
 	private void downloadFile(FileInfo info, String tarPath) {
-		if (info.getSize() == -1) {
+		if (info.getSize() <= 0) {
 			// can not split, add single download task
 			final DownloadTask task = new DownloadTask(info.getUrl(), tarPath);
 			task.setStart(0);
@@ -182,15 +402,19 @@ public class LinkCheckerCore implements DownloadManager {
 			if (blockSize < minBlockSize) {
 				blockSize = minBlockSize;
 			}
+			if (tarPath != null && !preallocateFile(tarPath, info.getSize())) {
+				onLinkCheckFailed(info);
+				return;
+			}
 			long start = 0;
 			long end = 0;
-			while (start <= info.getSize()) {
+			while (start < info.getSize()) {
 				final DownloadTask task = new DownloadTask(info.getUrl(), tarPath);
 				task.setStart(start);
 				task.setCurrent(start);
 				end = start + blockSize;
-				if (end > info.getSize()) {
-					end = info.getSize();
+				if (end >= info.getSize()) {
+					end = info.getSize() - 1;
 				}
 				task.setEnd(end);
 				task.setType(info.getType());
@@ -202,284 +426,1015 @@ public class LinkCheckerCore implements DownloadManager {
 	}
 	
 	/**
-	 * Try to get the basic information of remote file
-	 * Will retry FILE_INFO_QUERY_MAX_RETRIES times at most
+	 * Set the length of the target file, so that each block can be written into its own mapped region
 	 * 
-	 * @param urlStr
-	 * 		the URL of the remote file
-	 * @param callback
-	 * 		if callback is null, the query process will block the current thread.
-	 * 		otherwise a new thread will be created to perform the query, and the callback will be invoked when query is finished.
-	 * @return
+	 * @param tarPath
+	 * @param size
+	 * @return false if the file can not be allocated
 	 */
-	private FileInfo getRemoteFileInfo(final String urlStr, final FileInfoCallback callback) {
-		final FileInfo info = fileInfoMap.containsKey(urlStr) ? fileInfoMap.get(urlStr) : new FileInfo(urlStr);
-		final Runnable proc = new Runnable() {
-			public void run() {
-				final int maxRetries = Env.getIntegerSetting(Env.FILE_INFO_QUERY_MAX_RETRIES);
-				for (int retryCount = 0; retryCount < maxRetries; retryCount ++) {
-					try {
-						final URLConnection conn = new URL(urlStr).openConnection();
-						conn.setConnectTimeout(Env.getIntegerSetting(Env.CONNECTION_TIMEOUT));
-						conn.setReadTimeout(Env.getIntegerSetting(Env.READ_TIMEOUT));
-						if (conn instanceof HttpURLConnection) {
-							final HttpURLConnection httpConn = (HttpURLConnection)conn;
-							try {
-								info.setStatusCode(httpConn.getResponseCode());
-							} catch (RuntimeException e) {
-								info.setStatusCode(-1);
-							}
-						}
-						info.setType(conn.getContentType());
-						info.setSize(conn.getContentLength());
-						break;
-					} catch (IOException ioe) {
-						if (retryCount == maxRetries - 1) {
-							Env.getLogger().severe("Can not get the size of remote file: " + urlStr);
-						} else {
-							Env.getLogger().severe("Get remote file size failed, retrying...");
-						}
-					}
-				}
-				if (callback != null) {
-					callback.fileInfoReceived(info);
-				}
+	private boolean preallocateFile(String tarPath, long size) {
+		try {
+			final RandomAccessFile file = new RandomAccessFile(tarPath, "rw");
+			try {
+				file.setLength(size);
+			} finally {
+				file.close();
 			}
-		};
-		if (callback == null) {
-			proc.run();
-		} else {
-			new Thread(proc).start();
+			return true;
+		} catch (IOException e) {
+			Env.getLogger().severe("Can not allocate " + size + " bytes for " + tarPath + ": " + e.getMessage());
+			return false;
 		}
-        return info;
 	}
 	
 	/**
-	 * Check the links in the page that stored in given file path
+	 * Create the HTTP transport configured by HTTP_TRANSPORT, 
+	 * fall back to HttpURLConnection if java.net.http is not available
 	 * 
-	 * @param filePath
+	 * @return
 	 */
-	private void checkLinks(String filePath) {
-		try {
-			// find out all links
-			final byte[] buffer = new byte[(int) new File(filePath).length()];
-			final BufferedInputStream f = new BufferedInputStream(new FileInputStream(filePath));
-			f.read(buffer);
-			final String htmlContent = new String(buffer);
-			final Matcher m = LINK_REG.matcher(htmlContent);
-			final Set<String> linkSet = new HashSet<String>();
-	        while (m.find()) {
-	        	final String link = m.group(1);
-	        	try {
-					final URI uri = new URI(link);
-					String absLink = link;
-					if (!uri.isAbsolute()) {
-						if (link.startsWith("/")) {
-							absLink = baseUrl + link.substring(1);
-						} else {
-							absLink = baseUrl + link;
-						}
-					}
-					if (absLink.toLowerCase().startsWith("http")) {
-						linkSet.add(absLink);
-						fileInfoMap.put(absLink, new FileInfo(absLink));
-					} else {
-						// ignore non HTTP URL
-						Env.getLogger().warning("Ignore non-http URL: " + absLink);
-					}
-				} catch (Exception e) {
-					// ignore malformed URL
-					Env.getLogger().warning("Ignore malformed URL: " + link);
-				}
-	        }
-	        // try to download the links in page
-	        for (String link : linkSet) {
-	        	final File tmpFile = createTemporaryFile();
-	    		if (tmpFile != null) {
-	    			getRemoteFileInfo(link, new FileInfoCallback() {
-						public void fileInfoReceived(FileInfo info) {
-							if (info.getStatusCode() >= 200 && info.getStatusCode() < 300) {
-								// download the file for 2xx status code
-								downloadFile(info, tmpFile.getAbsolutePath());
-								Env.getLogger().info("Check link: " + info.getUrl());
-							} else {
-								// the link is broken
-								info.setState(State.FAILED);
-								for (CoreStateListener l : listeners) {
-									l.linkCheckFailed(info);
-								}
-							}
-						}
-	    			});
-	    		}
-	        }
-	        // if no link found
-	        if (linkSet.size() == 0) {
-	        	for (CoreStateListener l : listeners) {
-					l.noLinkFound();
-				}
-	        }
-		} catch (FileNotFoundException e) {
-			Env.getLogger().severe("Can not load file: " + filePath);
-		} catch (Exception e) {
-			Env.getLogger().severe(e.getMessage());
-			e.printStackTrace();
+	private static HttpTransport createTransport() {
+		if ("httpclient".equalsIgnoreCase(Env.getSetting(Env.HTTP_TRANSPORT))) {
+			try {
+				return (HttpTransport)Class.forName("xuan.yun.core.HttpClientTransport").getConstructor().newInstance();
+			} catch (Throwable e) {
+				Env.getLogger().warning("JRE version is lower than 11, HttpURLConnection is used.");
+			}
 		}
+		return new UrlConnectionTransport();
 	}
-
+	
 	/**
-	 * Return the max thread number
+	 * Verify the remote file without transferring its body.
+	 * A HEAD request is sent first, if the server rejects it, a GET request for the first byte is sent instead.
 	 * 
-	 * @return
+	 * @param info
+	 * @return the final response
+	 * @throws IOException
 	 */
-	public int getMaxThreads() {
-		return maxThreads;
+	private TransportResponse verifyRemoteFile(FileInfo info) throws IOException {
+		final Map<String, String> headers = getConditionalHeaders(info.getUrl());
+		TransportResponse response = transport.send("HEAD", info.getUrl(), headers);
+		response.close();
+		boolean ranged = false;
+		if ((response.getStatusCode() < 200 || response.getStatusCode() >= 400) && !RetryScheduler.isRetryable(response.getStatusCode())) {
+			// some servers reject or mishandle HEAD, ask for the first byte instead
+			headers.put("Range", "bytes=0-0");
+			response = transport.send("GET", info.getUrl(), headers);
+			ranged = true;
+		}
+		applyProbeResponse(info, response, ranged);
+		return response;
 	}
-
+	
 	/**
-	 * Set max thread number
+	 * Update the info with the final response of the probe
 	 * 
-	 * @param maxThreads
-	 * 		must be 1~20
+	 * @param info
+	 * @param response
+	 * @param abortBody
+	 * 		if the body may be large and must not be read
 	 */
-	public void setMaxThreads(int maxThreads) {
-		if (maxThreads >= 1 && maxThreads <= 20) {
-			this.maxThreads = maxThreads;
-			Env.putSetting(Env.DOWNLOAD_MAX_THREAD_COUNT, maxThreads);
+	private void applyProbeResponse(FileInfo info, TransportResponse response, boolean abortBody) {
+		info.setFailureReason(null);
+		info.setNotModified(false);
+		if (response.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			response.close();
+			useCachedInfo(info);
+			return;
+		}
+		info.setStatusCode(response.getStatusCode());
+		info.setType(response.getContentType());
+		if (response.getStatusCode() == HttpURLConnection.HTTP_PARTIAL) {
+			// Content-Range: bytes 0-0/<size>
+			final String range = response.getHeader("Content-Range");
+			final int slashPos = range == null ? -1 : range.lastIndexOf('/');
+			try {
+				info.setSize(slashPos == -1 ? -1 : Long.parseLong(range.substring(slashPos + 1).trim()));
+			} catch (NumberFormatException e) {
+				info.setSize(-1);
+			}
+			response.close();
 		} else {
-			Env.getLogger().warning("Max threads number should between 1 to 20.  The new value " + maxThreads + " is ignored.");
+			info.setSize(response.getContentLength());
+			if (abortBody) {
+				// the server ignored the range, do not read the whole body
+				response.abort();
+			}
 		}
+		cacheRemoteFileInfo(info, response);
 	}
 	
 	/**
-	 * Add LinkStateListener
+	 * Return the request headers to check if the cached link is modified since last run.
+	 * The input URL is always checked in full
 	 * 
-	 * @param l
+	 * @param url
+	 * @return
 	 */
-	public void addCoreStateListener(CoreStateListener l) {
-		listeners.add(l);
+	private Map<String, String> getConditionalHeaders(String url) {
+		final Map<String, String> headers = new HashMap<String, String>();
+		final LinkCache.Entry entry = linkCache == null || url.equals(this.url) ? null : linkCache.get(url);
+		if (entry != null) {
+			if (entry.getEtag() != null) {
+				headers.put("If-None-Match", entry.getEtag());
+			}
+			if (entry.getLastModified() != null) {
+				headers.put("If-Modified-Since", entry.getLastModified());
+			}
+		}
+		return headers;
 	}
 	
 	/**
-	 * Remove LinkStateListener
+	 * The link is not modified since last run, take the cached info
 	 * 
-	 * @param l
+	 * @param info
 	 */
-	public void removeLinkStateListener(CoreStateListener l) {
-		listeners.remove(l);
+	private void useCachedInfo(FileInfo info) {
+		info.setNotModified(true);
+		final LinkCache.Entry entry = linkCache.get(info.getUrl());
+		if (entry == null) {
+			// the validators were sent, so the link was OK when it was cached
+			info.setStatusCode(HttpURLConnection.HTTP_OK);
+			return;
+		}
+		info.setStatusCode(entry.getStatusCode());
+		info.setSize(entry.getSize());
+		info.setType(entry.getType());
+		Env.getLogger().info("URL \"" + info.getUrl() + "\" is not modified since last run.");
 	}
 	
 	/**
-	 * remove all LinkStateListener instances
-	 */
-	public void removeAllLinkStateListeners() {
-		listeners.clear();
-	}
-
-	/**
-	 * Start to down the URL and check links
+	 * Update the cached info of the link with the validators in response
+	 * 
+	 * @param info
+	 * @param response
 	 */
-	public synchronized void start() {
-		elapsedTime = 0;
-		startTime = System.currentTimeMillis();
-		running = true;
-		// try to download the main URL
-		final File tmpFile = createTemporaryFile();
-		if (tmpFile != null) {
-			final FileInfo info = getRemoteFileInfo(url, new FileInfoCallback() {
-				public void fileInfoReceived(FileInfo info) {
-					// the input URL is broken, stop working
-					if (info.getStatusCode() < 200 || info.getStatusCode() >= 300) {
-						for (CoreStateListener l : listeners) {
-							l.inputURLBroken();
-						}
-						stop();
-					}
-				}
-			});
-			// for main URL, download it directly
-			info.setType("text/html");
-			downloadFile(info, tmpFile.getAbsolutePath());
+	private void cacheRemoteFileInfo(FileInfo info, TransportResponse response) {
+		if (linkCache == null) {
+			return;
 		}
-		// start the download threads
-		for (DownloadThread thread : downloadThreads) {
-			thread.start();
+		if (info.getStatusCode() >= 200 && info.getStatusCode() < 300) {
+			linkCache.put(info, response.getHeader("ETag"), response.getHeader("Last-Modified"));
+		} else {
+			linkCache.remove(info.getUrl());
 		}
 	}
 	
 	/**
-	 * Stop links checking
+	 * Try to get the basic information of remote file
+	 * Will retry FILE_INFO_QUERY_MAX_RETRIES times at most
+	 * 
+	 * @param urlStr
+	 * 		the URL of the remote file
+	 * @param callback
+	 * 		if callback is null, the query process will block the current thread.
+	 * 		otherwise the query will be queued to the probe executor, and the callback will be invoked when query is finished.
+	 * @return
 	 */
-	public synchronized void stop() {
-		elapsedTime = System.currentTimeMillis() - startTime;
-		running = false;
-		for (DownloadThread thread : downloadThreads) {
-			thread.interrupt();
+	private FileInfo getRemoteFileInfo(final String urlStr, final FileInfoCallback callback) {
+		final FileInfo info = fileInfoMap.containsKey(urlStr) ? fileInfoMap.get(urlStr) : new FileInfo(urlStr);
+		final BlockingProbe proc = new BlockingProbe(info, callback);
+		if (callback == null) {
+			proc.run();
+		} else if (probeEngine != null && NioProbeEngine.accepts(urlStr)) {
+			new EngineProbe(info, callback, proc).send();
+		} else {
+			probeExecutor.execute(urlStr, proc);
 		}
+        return info;
 	}
 	
 	/**
-	 * Return the total number of links to be checked
-	 * 
-	 * @return
+	 * Probe the link with the blocking transport. A failed attempt is retried after the backoff delay, 
+	 * the probe thread is released while waiting unless there is no callback
 	 */
-	public int getTotalLinksCount() {
-		return fileInfoMap.size();
+	private class BlockingProbe implements Runnable {
+		private final FileInfo info;
+		private final FileInfoCallback callback;
+		private final int run = runId;
+		private int failureCount = 0;
+		
+		BlockingProbe(FileInfo info, FileInfoCallback callback) {
+			this.info = info;
+			this.callback = callback;
+		}
+		
+		public void run() {
+			if (info.getStartTime() == 0) {
+				info.setStartTime(System.currentTimeMillis());
+			}
+			long retryDelay;
+			while ((retryDelay = attempt()) >= 0) {
+				if (callback != null) {
+					retryScheduler.schedule(retryDelay, new Runnable() {
+						public void run() {
+							// never run the probe on the retry thread
+							if (run == runId) {
+								probeExecutor.queue(info.getUrl(), BlockingProbe.this);
+							}
+						}
+					});
+					return;
+				}
+				try {
+					Thread.sleep(retryDelay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			if (callback != null && run == runId) {
+				callback.fileInfoReceived(info);
+			}
+		}
+		
+		/**
+		 * Send the request once
+		 * 
+		 * @return the delay (ms) before next attempt, -1 if the probe is done
+		 */
+		private long attempt() {
+			final String urlStr = info.getUrl();
+			if (isHostBlocked(info)) {
+				return -1;
+			}
+			final long requestTime = System.currentTimeMillis();
+			TransportResponse response = null;
+			try {
+				if (verifyOnly) {
+					response = verifyRemoteFile(info);
+				} else {
+					response = transport.send("GET", urlStr, getConditionalHeaders(urlStr));
+					applyProbeResponse(info, response, true);
+				}
+				onResponseReceived(urlStr, response.getStatusCode(), System.currentTimeMillis() - requestTime);
+				if (!RetryScheduler.isRetryable(response.getStatusCode())) {
+					return -1;
+				}
+			} catch (IOException ioe) {
+				onRequestFailed(urlStr, ioe);
+				info.setFailureReason(describeFailure(ioe));
+			}
+			failureCount ++;
+			if (failureCount >= Env.getIntegerSetting(Env.FILE_INFO_QUERY_MAX_RETRIES)) {
+				Env.getLogger().severe("Can not get the size of remote file: " + urlStr);
+				return -1;
+			}
+			final long retryDelay = RetryScheduler.getRetryDelay(failureCount, response);
+			Env.getLogger().severe("Get remote file size failed, retrying in " + retryDelay + " ms...");
+			return retryDelay;
+		}
 	}
 	
 	/**
-	 * Return the number of broken links
-	 * 
-	 * @return
+	 * Probe the link with the non-blocking engine, the steps and retries are the same as the blocking probe. 
+	 * The link redirected to other scheme is probed by the blocking probe again
 	 */
-	public int getBrokenLinksCount() {
-		int count = 0;
-		for (FileInfo info : fileInfoMap.values()) {
-			if (info.getState() == State.FAILED) {
-				count ++;
+	private class EngineProbe implements ResponseHandler {
+		private final FileInfo info;
+		private final FileInfoCallback callback;
+		private final Runnable blockingProbe;
+		private final int run = runId;
+		private int failureCount = 0;
+		private boolean ranged;
+		private Map<String, String> headers;
+		private long requestTime;
+		
+		EngineProbe(FileInfo info, FileInfoCallback callback, Runnable blockingProbe) {
+			this.info = info;
+			this.callback = callback;
+			this.blockingProbe = blockingProbe;
+		}
+		
+		void send() {
+			if (info.getStartTime() == 0) {
+				info.setStartTime(System.currentTimeMillis());
+			}
+			if (isHostBlocked(info)) {
+				callback.fileInfoReceived(info);
+				return;
+			}
+			ranged = false;
+			headers = getConditionalHeaders(info.getUrl());
+			requestTime = System.currentTimeMillis();
+			probeEngine.send(verifyOnly ? "HEAD" : "GET", info.getUrl(), headers, this);
+		}
+		
+		public void responseReceived(TransportResponse response) {
+			if (run != runId) {
+				// the core is restarted
+				response.close();
+				return;
+			}
+			final int statusCode = response.getStatusCode();
+			if (statusCode >= 300 && statusCode < 400 && response.getHeader("Location") != null) {
+				// the engine follows plain HTTP redirects only
+				probeExecutor.execute(info.getUrl(), blockingProbe);
+				return;
+			}
+			if (RetryScheduler.isRetryable(statusCode) && failureCount + 1 < Env.getIntegerSetting(Env.FILE_INFO_QUERY_MAX_RETRIES)) {
+				// overloaded, try again later
+				onResponseReceived(info.getUrl(), statusCode, System.currentTimeMillis() - requestTime);
+				retry(response);
+				return;
+			}
+			if (verifyOnly && !ranged && (statusCode < 200 || statusCode >= 400) && !RetryScheduler.isRetryable(statusCode)) {
+				// some servers reject or mishandle HEAD, ask for the first byte instead
+				ranged = true;
+				headers.put("Range", "bytes=0-0");
+				probeEngine.send("GET", info.getUrl(), headers, this);
+				return;
+			}
+			// the engine never reads the body
+			applyProbeResponse(info, response, false);
+			onResponseReceived(info.getUrl(), statusCode, System.currentTimeMillis() - requestTime);
+			callback.fileInfoReceived(info);
+		}
+		
+		public void requestFailed(IOException e) {
+			if (run != runId) {
+				return;
 			}
+			onRequestFailed(info.getUrl(), e);
+			info.setFailureReason(describeFailure(e));
+			if (failureCount + 1 < Env.getIntegerSetting(Env.FILE_INFO_QUERY_MAX_RETRIES)) {
+				retry(null);
+			} else {
+				Env.getLogger().severe("Can not get the size of remote file: " + info.getUrl());
+				callback.fileInfoReceived(info);
+			}
+		}
+		
+		private void retry(TransportResponse response) {
+			failureCount ++;
+			final long retryDelay = RetryScheduler.getRetryDelay(failureCount, response);
+			Env.getLogger().severe("Get remote file size failed, retrying in " + retryDelay + " ms...");
+			retryScheduler.schedule(retryDelay, new Runnable() {
+				public void run() {
+					if (running && run == runId) {
+						send();
+					}
+				}
+			});
 		}
-		return count;
 	}
 	
 	/**
-	 * Return the number of broken links
+	 * Check if the circuit breaker rejects the requests to the host of the link, 
+	 * the failure reason of the link is set if rejected
 	 * 
+	 * @param info
 	 * @return
 	 */
-	public int getWorkingLinksCount() {
-		int count = 0;
-		for (FileInfo info : fileInfoMap.values()) {
-			if (info.getState() == State.DOWNLOADED) {
-				count ++;
-			}
+	private boolean isHostBlocked(FileInfo info) {
+		final String origin = CircuitBreaker.getOrigin(info.getUrl());
+		if (breaker == null || breaker.allowRequest(origin)) {
+			return false;
 		}
-		return count;
+		info.setFailureReason(breaker.getFailureReason(origin));
+		return true;
 	}
 	
 	/**
-	 * Return the number of links that are currently checking
+	 * Return the failure reason for the exception of a failed request
 	 * 
+	 * @param e
 	 * @return
 	 */
-	public int getCheckingLinksCount() {
-		final Set<String> links = new HashSet<String>();
-		for (DownloadThread thread : downloadThreads) {
-			final DownloadTask task = thread.getTask();
-			if (task != null) {
-				links.add(task.getUrl());
-			}
-		}
-		return links.size();
+	private static String describeFailure(IOException e) {
+		return e.getClass().getSimpleName() + (e.getMessage() == null ? "" : ": " + e.getMessage());
 	}
 	
 	/**
-	 * Get the elapsed time for downloading/checking
+	 * Check the link found in the page with given base URL. 
+	 * The link is queued for checking immediately, unless it is already found in other pages.
+	 * 
+	 * @param pageBaseUrl
+	 * @param depth
+	 * 		crawl depth of the page
+	 * @param link
+	 */
+	private void checkLink(String pageBaseUrl, int depth, String link) {
+		try {
+			final String absLink = resolveLink(pageBaseUrl, link);
+			if (absLink.toLowerCase().startsWith("http")) {
+				if (fileInfoMap.containsKey(absLink)) {
+					return;
+				}
+				final FileInfo info = new FileInfo(absLink);
+				info.setDepth(depth + 1);
+				if (fileInfoMap.putIfAbsent(absLink, info) != null) {
+					// found in other page at the same time
+					return;
+				}
+				uncheckedLinksCount.incrementAndGet();
+				synchronized (fileInfoList) {
+					info.setIndex(fileInfoList.size());
+					fileInfoList.add(info);
+					totalLinksCount = fileInfoList.size();
+				}
+				eventBatcher.linkChanged(info);
+				countHostLink(HostScheduler.getHost(absLink));
+				getRemoteFileInfo(absLink, linkInfoCallback);
+			} else {
+				// ignore non HTTP URL
+				Env.getLogger().warning("Ignore non-http URL: " + absLink);
+			}
+		} catch (Exception e) {
+			// ignore malformed URL
+			Env.getLogger().warning("Ignore malformed URL: " + link);
+		}
+	}
+
+	/**
+	 * Count the link for its host, the host is resolved in background when its first link is found
+	 * 
+	 * @param linkHost
+	 */
+	private void countHostLink(String linkHost) {
+		AtomicInteger count = hostLinksCount.get(linkHost);
+		if (count == null) {
+			final AtomicInteger newCount = new AtomicInteger();
+			count = hostLinksCount.putIfAbsent(linkHost, newCount);
+			if (count == null) {
+				count = newCount;
+				if (resolver != null && linkHost.length() > 0) {
+					resolver.prefetch(linkHost);
+				}
+			}
+		}
+		count.incrementAndGet();
+	}
+	
+	/**
+	 * Open a connection to each of the HOST_PREWARM_COUNT hosts with most links, 
+	 * unless the connection was opened after other page
+	 */
+	private void prewarmBusiestHosts() {
+		final int prewarmCount = Env.getIntegerSetting(Env.HOST_PREWARM_COUNT);
+		if (prewarmCount <= 0 || resolver == null) {
+			return;
+		}
+		final List<Map.Entry<String, AtomicInteger>> hosts = new ArrayList<Map.Entry<String, AtomicInteger>>(hostLinksCount.entrySet());
+		Collections.sort(hosts, new Comparator<Map.Entry<String, AtomicInteger>>() {
+			public int compare(Map.Entry<String, AtomicInteger> e1, Map.Entry<String, AtomicInteger> e2) {
+				return e2.getValue().get() - e1.getValue().get();
+			}
+		});
+		for (int i = 0; i < hosts.size() && i < prewarmCount; i ++) {
+			final String prewarmHost = hosts.get(i).getKey();
+			if (prewarmHost.length() > 0 && prewarmedHosts.add(prewarmHost)) {
+				resolver.prewarm(findLinkOfHost(prewarmHost), transport);
+			}
+		}
+	}
+	
+	/**
+	 * Return a found link of given host
+	 * 
+	 * @param linkHost
+	 * @return
+	 */
+	private String findLinkOfHost(String linkHost) {
+		for (String link : fileInfoMap.keySet()) {
+			if (HostScheduler.getHost(link).equals(linkHost)) {
+				return link;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Return the time (ms) used to resolve each host of the found links
+	 * 
+	 * @return
+	 */
+	public Map<String, Long> getHostResolveTimes() {
+		if (resolver == null) {
+			return new HashMap<String, Long>();
+		}
+		final Map<String, Long> times = resolver.getResolveTimes();
+		times.keySet().retainAll(hostLinksCount.keySet());
+		return times;
+	}
+	
+	/**
+	 * The link is checked OK, update its state and notify the listeners
+	 * 
+	 * @param info
+	 */
+	private void onLinkCheckPassed(FileInfo info) {
+		if (!changeState(info, State.DOWNLOADED)) {
+			return;
+		}
+		info.setUsedTime(System.currentTimeMillis() - info.getStartTime());
+		statistics.linkChecked(info);
+		eventBatcher.linkChanged(info);
+		Env.getLogger().info("URL \"" + info.getUrl() + "\" is checked OK.");
+		for (CoreStateListener l : listeners) {
+			l.linkCheckPassed(info);
+		}
+		checkAllLinksChecked();
+	}
+	
+	/**
+	 * The link is broken, update its state and notify the listeners
+	 * 
+	 * @param info
+	 */
+	private void onLinkCheckFailed(FileInfo info) {
+		if (!changeState(info, State.FAILED)) {
+			return;
+		}
+		info.setUsedTime(System.currentTimeMillis() - info.getStartTime());
+		statistics.linkChecked(info);
+		eventBatcher.linkChanged(info);
+		for (CoreStateListener l : listeners) {
+			l.linkCheckFailed(info);
+		}
+		checkAllLinksChecked();
+	}
+	
+	/**
+	 * Move the link out of INDETERMINATED state and update the state counters
+	 * 
+	 * @param info
+	 * @param state
+	 * @return false if the link is already checked
+	 */
+	private boolean changeState(FileInfo info, State state) {
+		synchronized (info) {
+			if (info.getState() != State.INDETERMINATED) {
+				return false;
+			}
+			info.setState(state);
+		}
+		if (state == State.FAILED) {
+			brokenLinksCount.incrementAndGet();
+		} else {
+			workingLinksCount.incrementAndGet();
+		}
+		uncheckedLinksCount.decrementAndGet();
+		return true;
+	}
+	
+	/**
+	 * Stop the core if all links are checked
+	 */
+	private void checkAllLinksChecked() {
+		synchronized (this) {
+			if (!running || !inputPageParsed || uncheckedLinksCount.get() > 0) {
+				return;
+			}
+			Env.getLogger().info("All links are checked.");
+			// the listeners read the statistics of the run
+			elapsedTime = System.currentTimeMillis() - startTime;
+			for (CoreStateListener l : listeners) {
+				l.allLinksChecked();
+			}
+			halt();
+		}
+		saveLinkCache();
+	}
+	
+	/**
+	 * Return if the links are only verified, without downloading their content
+	 * 
+	 * @return
+	 */
+	public boolean isVerifyOnly() {
+		return verifyOnly;
+	}
+	
+	/**
+	 * Set if the links are only verified (HEAD request, or a single byte GET request), 
+	 * or fully downloaded to make sure they are OK
+	 * 
+	 * @param verifyOnly
+	 */
+	public void setVerifyOnly(boolean verifyOnly) {
+		this.verifyOnly = verifyOnly;
+		Env.putSetting(Env.CHECK_VERIFY_ONLY, verifyOnly);
+	}
+
+	/**
+	 * Return the maximum crawl depth
+	 * 
+	 * @return
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+	
+	/**
+	 * Set the maximum crawl depth. 
+	 * 1 means only the links in input URL are checked, 
+	 * 2 means the links in the HTML pages they point to on the same host are checked too, and so on.
+	 * 
+	 * @param maxDepth
+	 */
+	public void setMaxDepth(int maxDepth) {
+		if (maxDepth >= 1) {
+			this.maxDepth = maxDepth;
+			Env.putSetting(Env.CRAWL_MAX_DEPTH, maxDepth);
+		} else {
+			Env.getLogger().warning("Max crawl depth should be at least 1.  The new value " + maxDepth + " is ignored.");
+		}
+	}
+	
+	/**
+	 * Return the maximum number of pages to parse
+	 * 
+	 * @return
+	 */
+	public int getMaxPages() {
+		return maxPages;
+	}
+	
+	/**
+	 * Set the maximum number of pages to parse, including the input URL
+	 * 
+	 * @param maxPages
+	 */
+	public void setMaxPages(int maxPages) {
+		if (maxPages >= 1) {
+			this.maxPages = maxPages;
+			Env.putSetting(Env.CRAWL_MAX_PAGES, maxPages);
+		} else {
+			Env.getLogger().warning("Max crawl pages should be at least 1.  The new value " + maxPages + " is ignored.");
+		}
+	}
+	
+	/**
+	 * Return the number of pages whose links are checked
+	 * 
+	 * @return
+	 */
+	public int getCrawledPagesCount() {
+		return crawledPages.size();
+	}
+
+	/**
+	 * Return the max thread number
+	 * 
+	 * @return
+	 */
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Set max thread number
+	 * 
+	 * @param maxThreads
+	 * 		must be 1~20. if the core is running, the download threads are added or retired immediately. 
+	 * 		in virtual thread mode it only decides the number of blocks of a file
+	 */
+	public synchronized void setMaxThreads(int maxThreads) {
+		if (maxThreads >= 1 && maxThreads <= 20) {
+			this.maxThreads = maxThreads;
+			Env.putSetting(Env.DOWNLOAD_MAX_THREAD_COUNT, maxThreads);
+			if (running) {
+				resizeDownloadThreads();
+			}
+		} else {
+			Env.getLogger().warning("Max threads number should between 1 to 20.  The new value " + maxThreads + " is ignored.");
+		}
+	}
+	
+	/**
+	 * Start or retire the download threads to match maxThreads. 
+	 * The idle threads are retired first, a busy thread is retired after its current task
+	 */
+	private synchronized void resizeDownloadThreads() {
+		if (virtualThreads) {
+			if (downloadDispatcher == null) {
+				startDownloadDispatcher();
+			}
+			return;
+		}
+		while (downloadThreads.size() < maxThreads) {
+			final DownloadThread thread = new DownloadThread(this);
+			downloadThreads.add(thread);
+			thread.start();
+		}
+		while (downloadThreads.size() > maxThreads) {
+			DownloadThread retired = downloadThreads.get(downloadThreads.size() - 1);
+			for (DownloadThread thread : downloadThreads) {
+				if (!thread.isRunningTask()) {
+					retired = thread;
+					break;
+				}
+			}
+			downloadThreads.remove(retired);
+			retired.retire();
+		}
+	}
+	
+	/**
+	 * Start the thread that takes the download tasks and runs each of them on a new virtual thread, 
+	 * at most VIRTUAL_THREAD_MAX_CONCURRENCY tasks are run at the same time
+	 */
+	private void startDownloadDispatcher() {
+		final Semaphore permits = new Semaphore(Env.getIntegerSetting(Env.VIRTUAL_THREAD_MAX_CONCURRENCY));
+		downloadPermits = permits;
+		downloadDispatcher = new Thread("Download Dispatcher") {
+			public void run() {
+				while (running) {
+					try {
+						permits.acquire();
+					} catch (InterruptedException e) {
+						break;
+					}
+					final DownloadTask task = requestForDownloadTask();
+					if (task == null || !running) {
+						permits.release();
+						continue;
+					}
+					final DownloadThread thread = new DownloadThread(LinkCheckerCore.this, task);
+					downloadThreads.add(thread);
+					thread.start();
+				}
+			}
+		};
+		downloadDispatcher.setDaemon(true);
+		downloadDispatcher.start();
+	}
+	
+	/**
+	 * Return the number of live download threads
+	 * 
+	 * @return
+	 */
+	public int getDownloadThreadsCount() {
+		return downloadThreads.size();
+	}
+	
+	/**
+	 * Set the maximum number of connections to the same host, shared by the probes and the downloads
+	 * 
+	 * @param maxConnections
+	 */
+	public void setMaxConnectionsPerHost(int maxConnections) {
+		if (maxConnections >= 1) {
+			hostPermits.setMaxConnectionsPerHost(maxConnections);
+			if (limiter != null) {
+				limiter.setMaxLimit(maxConnections);
+			}
+			Env.putSetting(Env.HOST_MAX_CONNECTIONS, maxConnections);
+		} else {
+			Env.getLogger().warning("Max connections per host should be at least 1.  The new value " + maxConnections + " is ignored.");
+		}
+	}
+	
+	/**
+	 * Set the minimum time (ms) between two requests to the same host, the probes and the downloads included
+	 * 
+	 * @param interval
+	 */
+	public void setRequestInterval(int interval) {
+		if (interval >= 0) {
+			hostPermits.setRequestInterval(interval);
+			Env.putSetting(Env.HOST_REQUEST_INTERVAL, interval);
+		} else {
+			Env.getLogger().warning("Request interval should not be negative.  The new value " + interval + " is ignored.");
+		}
+	}
+	
+	/**
+	 * Add LinkStateListener
+	 * 
+	 * @param l
+	 */
+	public void addCoreStateListener(CoreStateListener l) {
+		listeners.add(l);
+	}
+	
+	/**
+	 * Remove LinkStateListener
+	 * 
+	 * @param l
+	 */
+	public void removeLinkStateListener(CoreStateListener l) {
+		listeners.remove(l);
+	}
+	
+	/**
+	 * Add CoreBatchListener, it is notified with the changed links on every tick of EVENT_BATCH_INTERVAL
+	 * 
+	 * @param l
+	 */
+	public void addCoreBatchListener(CoreBatchListener l) {
+		eventBatcher.addListener(l);
+	}
+	
+	/**
+	 * Remove CoreBatchListener
+	 * 
+	 * @param l
+	 */
+	public void removeCoreBatchListener(CoreBatchListener l) {
+		eventBatcher.removeListener(l);
+	}
+	
+	/**
+	 * remove all LinkStateListener instances
+	 */
+	public void removeAllLinkStateListeners() {
+		listeners.clear();
+	}
+
+	/**
+	 * Start to down the URL and check links
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		runId ++;
+		if (startTime != 0) {
+			// started before, check the links from scratch
+			reset();
+		}
+		elapsedTime = 0;
+		startTime = System.currentTimeMillis();
+		running = true;
+		eventBatcher.start(Env.getIntegerSetting(Env.EVENT_BATCH_INTERVAL));
+		// try to download the main URL
+		final FileInfo info = getRemoteFileInfo(url, new FileInfoCallback() {
+			public void fileInfoReceived(FileInfo info) {
+				// the input URL is broken, stop working
+				if (info.getStatusCode() < 200 || info.getStatusCode() >= 300) {
+					for (CoreStateListener l : listeners) {
+						l.inputURLBroken();
+					}
+					stop();
+				}
+			}
+		});
+		// for main URL, download it directly
+		info.setType("text/html");
+		crawledPages.add(url);
+		downloadPage(info, 0);
+		// start the download threads
+		resizeDownloadThreads();
+	}
+	
+	/**
+	 * Drop the results of last run, must be called before the core is restarted
+	 */
+	private void reset() {
+		fileInfoMap.clear();
+		synchronized (fileInfoList) {
+			fileInfoList.clear();
+			totalLinksCount = 0;
+		}
+		crawledPages.clear();
+		uncheckedLinksCount.set(0);
+		brokenLinksCount.set(0);
+		workingLinksCount.set(0);
+		downloadSize.set(0);
+		inputPageParsed = false;
+		hostLinksCount.clear();
+		prewarmedHosts.clear();
+		statistics = new RunStatistics();
+		createSchedulers();
+	}
+	
+	/**
+	 * Stop links checking
+	 */
+	public void stop() {
+		halt();
+		saveLinkCache();
+	}
+	
+	/**
+	 * Stop the threads of the run
+	 */
+	private synchronized void halt() {
+		elapsedTime = System.currentTimeMillis() - startTime;
+		running = false;
+		for (DownloadThread thread : downloadThreads) {
+			thread.retire();
+			thread.interrupt();
+		}
+		downloadThreads.clear();
+		if (downloadDispatcher != null) {
+			downloadDispatcher.interrupt();
+			downloadDispatcher = null;
+		}
+		retryScheduler.shutdown();
+		probeExecutor.shutdown();
+		if (probeEngine != null) {
+			probeEngine.shutdown();
+		}
+		if (resolver != null) {
+			resolver.shutdown();
+		}
+		eventBatcher.stop();
+	}
+	
+	/**
+	 * Save the link cache out of the core lock, the links being checked do not wait for the file.
+	 * The calling thread keeps the JVM alive until the cache is saved
+	 */
+	private void saveLinkCache() {
+		if (linkCache != null) {
+			linkCache.save();
+		}
+	}
+	
+	/**
+	 * Return the number of times the core is started, the links of an earlier run are dropped
+	 * 
+	 * @return
+	 */
+	public int getRunId() {
+		return runId;
+	}
+	
+	/**
+	 * Return the total number of links to be checked
+	 * 
+	 * @return
+	 */
+	public int getTotalLinksCount() {
+		return totalLinksCount;
+	}
+	
+	/**
+	 * Return the number of broken links
+	 * 
+	 * @return
+	 */
+	public int getBrokenLinksCount() {
+		return brokenLinksCount.get();
+	}
+	
+	/**
+	 * Return the number of working links
+	 * 
+	 * @return
+	 */
+	public int getWorkingLinksCount() {
+		return workingLinksCount.get();
+	}
+	
+	/**
+	 * Return the number of links that are not checked yet, including the queued ones
+	 * 
+	 * @return
+	 */
+	public int getCheckingLinksCount() {
+		return uncheckedLinksCount.get();
+	}
+	
+	/**
+	 * Return the number of remote file info queries waiting for a probe thread
+	 * 
+	 * @return
+	 */
+	public int getQueuedProbesCount() {
+		return probeExecutor.getQueuedCount() + (probeEngine == null ? 0 : probeEngine.getQueuedCount());
+	}
+	
+	/**
+	 * Return the number of remote file info queries in flight
+	 * 
+	 * @return
+	 */
+	public int getActiveProbesCount() {
+		return probeExecutor.getActiveCount() + (probeEngine == null ? 0 : probeEngine.getActiveCount());
+	}
+	
+	/**
+	 * Return the number of finished remote file info queries
+	 * 
+	 * @return
+	 */
+	public long getCompletedProbesCount() {
+		return probeExecutor.getCompletedCount() + (probeEngine == null ? 0 : probeEngine.getCompletedCount());
+	}
+	
+	/**
+	 * Return the number of download tasks waiting for a download thread
+	 * 
+	 * @return
+	 */
+	public int getQueuedTasksCount() {
+		return scheduler.getQueuedCount();
+	}
+	
+	/**
+	 * Get the elapsed time for downloading/checking, it keeps growing while the core is running
 	 * 
 	 * @return
 	 */
 	public long getElapsedTime() {
-		return elapsedTime;
+		return running ? System.currentTimeMillis() - startTime : elapsedTime;
 	}
 
 	/**
@@ -488,11 +1443,34 @@ public class LinkCheckerCore implements DownloadManager {
 	 * @return
 	 */
 	public long getDownloadSize() {
-		return downloadSize;
+		return downloadSize.get();
 	}
 
 	/**
-	 * Get the map that store all files' info
+	 * Return the current connection limits of the requested hosts, 
+	 * empty if the connections are fixed (HOST_ADAPTIVE_CONCURRENCY is off)
+	 * 
+	 * @return
+	 */
+	public Map<String, Integer> getHostConnectionLimits() {
+		if (limiter == null) {
+			return Collections.emptyMap();
+		}
+		return limiter.getLimits();
+	}
+
+	/**
+	 * Get the latency and memory usage of the checked links
+	 * 
+	 * @return
+	 */
+	public RunStatistics getRunStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Get the map that store all files' info, the map is not ordered, 
+	 * use getFileInfo(int) to get the links in the order they are found
 	 * 
 	 * @return
 	 */
@@ -500,130 +1478,201 @@ public class LinkCheckerCore implements DownloadManager {
 		return fileInfoMap;
 	}
 
+	/**
+	 * Get the info of the link with given index, the links are indexed in the order they are found
+	 * 
+	 * @param index
+	 * @return null if the index is out of range
+	 */
+	public FileInfo getFileInfo(int index) {
+		synchronized (fileInfoList) {
+			return index < 0 || index >= fileInfoList.size() ? null : fileInfoList.get(index);
+		}
+	}
+
 	///////////////////////////////////////////////////////////////////////////
 	// DownloadManager
 	///////////////////////////////////////////////////////////////////////////
 	public void addDownloadTask(DownloadTask task) {
-		synchronized (downloadTasks) {
-			downloadTasks.add(task);
-			List<DownloadTask> tasks = fileTasksMap.get(task.getUrl());
-			if (tasks == null) {
-				tasks = new ArrayList<DownloadTask>();
-				fileTasksMap.put(task.getUrl(), tasks);
-			}
-			if (!tasks.contains(task)) {
-				tasks.add(task);
-			}
-			downloadTasks.notifyAll();
+		task.setRunId(runId);
+		scheduler.add(task);
+	}
+	
+	/**
+	 * Return if the task is queued in current run, the threads of last run may still report their tasks after the core is restarted
+	 * 
+	 * @param task
+	 * @return
+	 */
+	private boolean isCurrentRun(DownloadTask task) {
+		return task.getRunId() == runId;
+	}
+	
+	public void retryDownloadTask(final DownloadTask task, long delay) {
+		if (!isCurrentRun(task)) {
+			return;
 		}
+		retryScheduler.schedule(delay, new Runnable() {
+			public void run() {
+				if (running && isCurrentRun(task)) {
+					scheduler.add(task);
+				}
+			}
+		});
 	}
 
-	public boolean hasIdleDownloadThread() {
-		for (DownloadThread thread : downloadThreads) {
-			if (!thread.isRunningTask()) {
-				return true;
-			}
+	public HttpTransport getHttpTransport() {
+		return transport;
+	}
+
+	public void releaseDownloadTask(DownloadTask task) {
+		// the connections of last run are dropped with its permits
+		if (isCurrentRun(task)) {
+			scheduler.release(task);
+		}
+	}
+	
+	public void onDownloadThreadExit(DownloadThread thread) {
+		// the threads of last run are not in the list any more
+		if (downloadThreads.remove(thread) && virtualThreads) {
+			downloadPermits.release();
 		}
-		return false;
 	}
 
 	public boolean isRunning() {
 		return running;
 	}
 
+	public void onResponseReceived(String url, int statusCode, long latency) {
+		if (limiter != null) {
+			limiter.onResponse(HostScheduler.getHost(url), statusCode, latency);
+		}
+		if (breaker != null) {
+			breaker.onResponse(CircuitBreaker.getOrigin(url));
+		}
+	}
+
+	public void onRequestFailed(String url, IOException e) {
+		if (limiter != null) {
+			limiter.onFailure(HostScheduler.getHost(url), e);
+		}
+		if (breaker != null) {
+			breaker.onFailure(CircuitBreaker.getOrigin(url), e);
+		}
+	}
+
 	public void onDataDownloaded(DownloadTask task, int dataLength) {
+		if (!isCurrentRun(task)) {
+			return;
+		}
 		elapsedTime = System.currentTimeMillis() - startTime;
-		downloadSize += dataLength;
+		downloadSize.addAndGet(dataLength);
 		final FileInfo info = fileInfoMap.get(task.getUrl());
 		if (info != null) {
-			info.setDownloadedSize(info.getDownloadedSize() + dataLength);
+			info.addDownloadedSize(dataLength);
 			info.setUsedTime(System.currentTimeMillis() - info.getStartTime());
-			for (CoreStateListener l : listeners) {
-				l.linkDownloading(info);
-			}
+			// the listeners are notified on next tick
+			eventBatcher.linkChanged(info);
 		}
 	}
 
 	public void onDownloadTaskFinished(DownloadTask task) {
-		elapsedTime = System.currentTimeMillis() - startTime;
-		List<DownloadTask> tasks = fileTasksMap.get(task.getUrl());
-		if (tasks == null) {
-			tasks = new ArrayList<DownloadTask>();
-			fileTasksMap.put(task.getUrl(), tasks);
+		if (!isCurrentRun(task)) {
+			return;
 		}
-		tasks.remove(task);
-		if (tasks.size() == 0) {
+		elapsedTime = System.currentTimeMillis() - startTime;
+		if (scheduler.finish(task)) {
 			// all tasks for given URL is finished, file is done
-			if (task.getUrl().equals(url)) {
-				// the main URL is downloaded, check links inside
-				if (task.getType().toLowerCase().contains("text/html")) {
-					Env.getLogger().info("URL is downloaded, checking the links inside...");
-					checkLinks(task.getTarPath());
+			if (task.isPage()) {
+				// the page is downloaded, all links inside are found
+				task.getLinkExtractor().finish();
+				Env.getLogger().info("URL \"" + task.getUrl() + "\" is downloaded, " + task.getLinkExtractor().getLinksCount() + " links found.");
+				prewarmBusiestHosts();
+				if (task.getUrl().equals(url)) {
+					inputPageParsed = true;
+					if (fileInfoMap.isEmpty()) {
+						for (CoreStateListener l : listeners) {
+							l.noLinkFound();
+						}
+						stop();
+					} else {
+						checkAllLinksChecked();
+					}
 				}
-			} else {
+			}
+			if (!task.getUrl().equals(url)) {
 				// the link is downloaded, update its state
 				final FileInfo info = fileInfoMap.get(task.getUrl());
 				if (info != null) {
 					// download finished
-					info.setState(State.DOWNLOADED);
 					if (info.getSize() != -1) {
 						info.setDownloadedSize(info.getSize());
 					}
-					info.setUsedTime(System.currentTimeMillis() - info.getStartTime());
-					Env.getLogger().info("URL \"" + info.getUrl() + "\" is checked OK.");
-					for (CoreStateListener l : listeners) {
-    					l.linkCheckPassed(info);
-    				}
-				}
-				// stop if all links are checked
-				boolean canStop = true;
-				for (FileInfo fileInfo : fileInfoMap.values()) {
-					if (fileInfo.getState() == State.INDETERMINATED) {
-						canStop = false;
-						break;
-					}
-				}
-				if (canStop) {
-					Env.getLogger().info("All links are checked.");
-					for (CoreStateListener l : listeners) {
-						l.allLinksChecked();
-					}
-					stop();
+					onLinkCheckPassed(info);
 				}
 			}
 		}
 	}
 
 	public void onDownloadTerminated(DownloadTask task) {
+		if (!isCurrentRun(task)) {
+			return;
+		}
 		elapsedTime = System.currentTimeMillis() - startTime;
 		final FileInfo info = fileInfoMap.get(task.getUrl());
 		if (info != null) {
 			// download failed
-			info.setState(State.FAILED);
-			info.setUsedTime(System.currentTimeMillis() - info.getStartTime());
-			for (CoreStateListener l : listeners) {
-				l.linkCheckFailed(info);
-			}
+			onLinkCheckFailed(info);
 		}
 	}
 
 	public DownloadTask requestForDownloadTask() {
-		synchronized (downloadTasks) {
-			while (running && downloadTasks.size() == 0) {
-				try {
-					downloadTasks.wait();
-				} catch (InterruptedException e) {
-					return null;
+		DownloadTask task = null;
+		try {
+			while (task == null && running) {
+				task = scheduler.poll(STEAL_INTERVAL);
+				if (task == null) {
+					// nothing queued, steal the tail of the busiest block for the idle threads
+					stealDownloadTask();
 				}
 			}
-			final DownloadTask task = downloadTasks.remove(0);
-			final FileInfo info = fileInfoMap.get(task.getUrl());
-			if (info != null) {
-				if (info.getStartTime() == 0) {
-					info.setStartTime(System.currentTimeMillis());
-				}
+		} catch (InterruptedException e) {
+			return null;
+		}
+		if (task == null) {
+			return null;
+		}
+		final FileInfo info = fileInfoMap.get(task.getUrl());
+		if (info != null) {
+			if (isHostBlocked(info)) {
+				// the host is unreachable, fail the link without connecting
+				scheduler.release(task);
+				onDownloadTerminated(task);
+				return null;
+			}
+			if (info.getStartTime() == 0) {
+				info.setStartTime(System.currentTimeMillis());
 			}
-			return task;
+		}
+		return task;
+	}
+
+	/**
+	 * Split the remaining half of the block with most data left, and queue it. 
+	 * The block is not split if the half is smaller than DOWNLOAD_REMAIN_SPLIT_THRESHOLD
+	 */
+	private void stealDownloadTask() {
+		DownloadTask victim = null;
+		long maxRemainSize = 0;
+		for (DownloadThread thread : downloadThreads) {
+			final DownloadTask task = thread.getTask();
+			if (task != null && task.getRemainSize() > maxRemainSize) {
+				victim = task;
+				maxRemainSize = task.getRemainSize();
+			}
+		}
+		if (victim != null) {
+			scheduler.split(victim, Env.getIntegerSetting(Env.DOWNLOAD_REMAIN_SPLIT_THRESHOLD));
 		}
 	}
 	///////////////////////////////////////////////////////////////////////////
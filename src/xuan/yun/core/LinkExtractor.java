@@ -0,0 +1,230 @@
+/**
+ *  LinkExtractor finds the href of anchors in HTML data that arrives chunk by chunk
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.io.UnsupportedEncodingException;
+
+import xuan.yun.core.intf.LinkCallback;
+
+public class LinkExtractor {
+
+	// tokenizer states
+	private static final int TEXT = 0;				// outside of tags
+	private static final int TAG_NAME = 1;			// after '<'
+	private static final int SKIP_TAG = 2;			// inside a tag that is not an anchor
+	private static final int COMMENT = 3;			// inside <!-- -->
+	private static final int ATTRS = 4;				// inside an anchor, between attributes
+	private static final int ATTR_NAME = 5;
+	private static final int AFTER_ATTR_NAME = 6;
+	private static final int BEFORE_ATTR_VALUE = 7;
+	private static final int QUOTED_VALUE = 8;
+	private static final int UNQUOTED_VALUE = 9;
+
+	private static final int MAX_NAME_LENGTH = 16;		// longer tag and attribute names are not interesting
+	private static final int MAX_VALUE_LENGTH = 8192;	// longer links are ignored
+
+	private final LinkCallback callback;
+
+	private int state = TEXT;
+
+	private final byte[] name = new byte[MAX_NAME_LENGTH];
+	private int nameLength;
+
+	private final byte[] value = new byte[MAX_VALUE_LENGTH];
+	private int valueLength;
+
+	private byte quote;			// quote char of current value, or tag in SKIP_TAG state
+	private int dashCount;		// continuous '-' in comment
+
+	private int linksCount;
+
+	public LinkExtractor(LinkCallback callback) {
+		super();
+		this.callback = callback;
+	}
+
+	/**
+	 * Feed next chunk of the page
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	public void feed(byte[] data, int offset, int length) {
+		final int end = offset + length;
+		for (int i = offset; i < end; i ++) {
+			consume(data[i]);
+		}
+	}
+
+	/**
+	 * Move the tokenizer state with next byte
+	 * 
+	 * @param b
+	 */
+	private void consume(byte b) {
+		switch (state) {
+		case TEXT:
+			if (b == '<') {
+				nameLength = 0;
+				state = TAG_NAME;
+			}
+			break;
+		case TAG_NAME:
+			if (isSpace(b) || b == '>' || b == '/') {
+				if (nameLength == 1 && (name[0] == 'a' || name[0] == 'A')) {
+					state = b == '>' ? TEXT : ATTRS;
+				} else {
+					quote = 0;
+					state = b == '>' ? TEXT : SKIP_TAG;
+				}
+			} else if (b == '<') {
+				nameLength = 0;
+			} else {
+				appendName(b);
+				if (nameLength == 3 && name[0] == '!' && name[1] == '-' && name[2] == '-') {
+					dashCount = 0;
+					state = COMMENT;
+				}
+			}
+			break;
+		case SKIP_TAG:
+			if (quote != 0) {
+				if (b == quote) {
+					quote = 0;
+				}
+			} else if (b == '"' || b == '\'') {
+				quote = b;
+			} else if (b == '>') {
+				state = TEXT;
+			}
+			break;
+		case COMMENT:
+			if (b == '>' && dashCount >= 2) {
+				state = TEXT;
+			}
+			dashCount = b == '-' ? dashCount + 1 : 0;
+			break;
+		case ATTRS:
+			if (b == '>') {
+				state = TEXT;
+			} else if (!isSpace(b) && b != '/') {
+				nameLength = 0;
+				appendName(b);
+				state = ATTR_NAME;
+			}
+			break;
+		case ATTR_NAME:
+			if (b == '=') {
+				state = BEFORE_ATTR_VALUE;
+			} else if (b == '>') {
+				state = TEXT;
+			} else if (isSpace(b)) {
+				state = AFTER_ATTR_NAME;
+			} else {
+				appendName(b);
+			}
+			break;
+		case AFTER_ATTR_NAME:
+			if (b == '=') {
+				state = BEFORE_ATTR_VALUE;
+			} else if (b == '>') {
+				state = TEXT;
+			} else if (!isSpace(b) && b != '/') {
+				// attribute without value
+				nameLength = 0;
+				appendName(b);
+				state = ATTR_NAME;
+			}
+			break;
+		case BEFORE_ATTR_VALUE:
+			valueLength = 0;
+			if (b == '"' || b == '\'') {
+				quote = b;
+				state = QUOTED_VALUE;
+			} else if (b == '>') {
+				state = TEXT;
+			} else if (!isSpace(b)) {
+				appendValue(b);
+				state = UNQUOTED_VALUE;
+			}
+			break;
+		case QUOTED_VALUE:
+			if (b == quote) {
+				attributeFound();
+				state = ATTRS;
+			} else {
+				appendValue(b);
+			}
+			break;
+		case UNQUOTED_VALUE:
+			if (isSpace(b) || b == '>') {
+				attributeFound();
+				state = b == '>' ? TEXT : ATTRS;
+			} else {
+				appendValue(b);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Call this method when all data is fed, the last link without closing quote or bracket is dropped
+	 */
+	public void finish() {
+		state = TEXT;
+	}
+
+	/**
+	 * Drop the current state, the page will be fed from the beginning again
+	 */
+	public void reset() {
+		state = TEXT;
+		linksCount = 0;
+	}
+
+	/**
+	 * Return the number of links found
+	 *
+	 * @return
+	 */
+	public int getLinksCount() {
+		return linksCount;
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '\f';
+	}
+
+	private void appendName(byte b) {
+		if (nameLength < MAX_NAME_LENGTH) {
+			name[nameLength] = b;
+		}
+		nameLength ++;
+	}
+
+	private void appendValue(byte b) {
+		if (valueLength < MAX_VALUE_LENGTH) {
+			value[valueLength] = b;
+		}
+		valueLength ++;
+	}
+
+	private void attributeFound() {
+		if (nameLength != 4 || valueLength > MAX_VALUE_LENGTH
+				|| (name[0] | 0x20) != 'h' || (name[1] | 0x20) != 'r' || (name[2] | 0x20) != 'e' || (name[3] | 0x20) != 'f') {
+			return;
+		}
+		try {
+			final String link = new String(value, 0, valueLength, "UTF-8").trim().replace("&amp;", "&");
+			linksCount ++;
+			callback.linkFound(link);
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported
+		}
+	}
+}
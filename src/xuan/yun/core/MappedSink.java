@@ -0,0 +1,119 @@
+/**
+ *  MappedSink writes the downloaded data of a block into its own mapped region of the target file.
+ *  The region is mapped in windows of at most MAX_WINDOW_SIZE, a window is unmapped when the data moves beyond it
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import xuan.yun.core.intf.DataSink;
+
+public class MappedSink implements DataSink {
+
+	private static final long MAX_WINDOW_SIZE = 256L * 1024 * 1024;	// a mapping can not exceed 2 GB
+
+	// Unsafe.invokeCleaner(ByteBuffer) unmaps a buffer at once (JRE 9+), null if it is not available
+	private static Object unsafe = null;
+	private static Method invokeCleaner = null;
+	static {
+		try {
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			unsafe = field.get(null);
+		} catch (Exception e) {
+			// the windows are unmapped when they are collected
+		}
+	}
+
+	private final RandomAccessFile file;
+	private final long regionEnd;
+
+	private long windowStart;
+	private MappedByteBuffer window = null;
+
+	/**
+	 * Map the region of the target file, the file must be preallocated to cover the region
+	 *
+	 * @param filePath
+	 * @param start
+	 * 		the first byte of the region
+	 * @param end
+	 * 		the last byte of the region
+	 * @throws IOException
+	 */
+	public MappedSink(String filePath, long start, long end) throws IOException {
+		super();
+		regionEnd = end;
+		file = new RandomAccessFile(new File(filePath), "rw");
+		try {
+			mapWindow(start);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public void write(long position, ByteBuffer data) throws IOException {
+		if (position + data.remaining() - 1 > regionEnd) {
+			throw new IOException("Data at " + position + " is out of the mapped region.");
+		}
+		long pos = position;
+		while (data.hasRemaining()) {
+			if (pos < windowStart || pos >= windowStart + window.capacity()) {
+				mapWindow(pos);
+			}
+			// put the part of data inside current window
+			final int length = (int)Math.min(data.remaining(), windowStart + window.capacity() - pos);
+			final int limit = data.limit();
+			data.limit(data.position() + length);
+			window.position((int)(pos - windowStart));
+			window.put(data);
+			data.limit(limit);
+			pos += length;
+		}
+	}
+
+	public void close() throws IOException {
+		unmap();
+		file.close();
+	}
+
+	/**
+	 * Map the window starting at given position, the previous window is unmapped
+	 *
+	 * @param start
+	 * @throws IOException
+	 */
+	private void mapWindow(long start) throws IOException {
+		unmap();
+		windowStart = start;
+		window = file.getChannel().map(FileChannel.MapMode.READ_WRITE, start, Math.max(Math.min(regionEnd - start + 1, MAX_WINDOW_SIZE), 0));
+	}
+
+	private void unmap() {
+		if (window == null) {
+			return;
+		}
+		final MappedByteBuffer oldWindow = window;
+		window = null;
+		if (invokeCleaner != null) {
+			try {
+				invokeCleaner.invoke(unsafe, oldWindow);
+			} catch (Exception e) {
+				// unmapped when it is collected
+			}
+		}
+	}
+}
@@ -0,0 +1,471 @@
+/**
+ *  NioProbeEngine sends the probe requests of plain HTTP links with non-blocking sockets, 
+ *  so that thousands of probes can be in flight with a single event loop thread. 
+ *  Only the status line and headers are read, the connection is closed before the body
+ *  
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import xuan.yun.core.intf.ResponseHandler;
+
+public class NioProbeEngine {
+
+	private static final int MAX_HEADER_SIZE = 16384;	// bounded buffer for the response headers of each connection
+	private static final int MAX_REDIRECTS = 5;
+	private static final long SELECT_TIMEOUT = 100;		// ms, the timeouts are checked this often
+	private static final int CALLBACK_THREADS = 4;		// threads that run the response handlers
+
+	/**
+	 * A probe request and its connection state
+	 */
+	private static class Request {
+		final String method;
+		final URI uri;
+		final String host;
+		final Map<String, String> headers;
+		final ResponseHandler handler;
+		final int redirects;
+		SocketChannel channel;
+		ByteBuffer out;
+		ByteBuffer in;
+		long deadline;
+		Request(String method, URI uri, Map<String, String> headers, ResponseHandler handler, int redirects) {
+			this.method = method;
+			this.uri = uri;
+			this.host = uri.getHost().toLowerCase();
+			this.headers = headers;
+			this.handler = handler;
+			this.redirects = redirects;
+		}
+	}
+
+	private static int threadId = 0;
+
+	private final Selector selector;
+	
+	// runs the response handlers, they may block and must not run on the event loop thread
+	private final ExecutorService callbacks;
+	
+	// the requests waiting for a connection, handed out round-robin across the hosts
+	private final HostScheduler<Request> pending;
+	
+	// the requests with open connections, only accessed by the event loop thread
+	private final Set<Request> active = new HashSet<Request>();
+	private volatile int activeCount = 0;	// size of active, for other threads
+	
+	private final int maxConnections;
+	private final int connectTimeout;
+	private final int readTimeout;
+
+	private volatile boolean shutdown = false;
+	
+	private final HostResolver resolver;	// resolves the hosts, the loop never waits for the DNS
+	
+	private final AtomicInteger queuedCount = new AtomicInteger();
+	private final AtomicLong completedCount = new AtomicLong();
+
+	/**
+	 * Create engine and start its event loop thread
+	 * 
+	 * @param maxConnections
+	 * 		maximum number of connections in flight
+	 * @param permits
+	 * 		the connections of each host, shared with the probe threads and the downloads
+	 * @param resolver
+	 * 		resolves the hosts before their requests are connected
+	 * @throws IOException
+	 */
+	public NioProbeEngine(int maxConnections, HostPermits permits, HostResolver resolver) throws IOException {
+		super();
+		this.maxConnections = maxConnections;
+		this.resolver = resolver;
+		connectTimeout = Env.getIntegerSetting(Env.CONNECTION_TIMEOUT);
+		readTimeout = Env.getIntegerSetting(Env.READ_TIMEOUT);
+		pending = new HostScheduler<Request>(permits);
+		selector = Selector.open();
+		callbacks = Executors.newFixedThreadPool(CALLBACK_THREADS, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, "Probe Callback #" + nextThreadId());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		final Thread thread = new Thread("Probe Loop #" + nextThreadId()) {
+			public void run() {
+				loop();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	private static synchronized int nextThreadId() {
+		return threadId ++;
+	}
+	
+	/**
+	 * Return if the engine can send the request to given URL, only plain HTTP is supported
+	 * 
+	 * @param url
+	 * @return
+	 */
+	public static boolean accepts(String url) {
+		return url.regionMatches(true, 0, "http:", 0, 5);
+	}
+
+	/**
+	 * Queue the request, the handler is called in one of the callback threads, not in the event loop thread
+	 * 
+	 * @param method
+	 * @param url
+	 * @param headers
+	 * @param handler
+	 */
+	public void send(String method, String url, Map<String, String> headers, ResponseHandler handler) {
+		final URI uri;
+		try {
+			uri = new URI(url);
+		} catch (Exception e) {
+			handler.requestFailed(new IOException("Malformed URL: " + url));
+			return;
+		}
+		if (uri.getHost() == null) {
+			handler.requestFailed(new IOException("Malformed URL: " + url));
+			return;
+		}
+		queue(new Request(method, uri, headers, handler, 0));
+	}
+	
+	private void queue(Request request) {
+		if (shutdown) {
+			return;
+		}
+		queuedCount.incrementAndGet();
+		pending.add(request.host, request);
+		selector.wakeup();
+	}
+	
+	/**
+	 * Close all connections and stop the event loop, the queued requests are dropped
+	 */
+	public void shutdown() {
+		shutdown = true;
+		pending.clear();
+		queuedCount.set(0);
+		selector.wakeup();
+		callbacks.shutdown();
+	}
+	
+	public int getQueuedCount() {
+		return queuedCount.get();
+	}
+	
+	public int getActiveCount() {
+		return activeCount;
+	}
+	
+	public long getCompletedCount() {
+		return completedCount.get();
+	}
+	
+	private void loop() {
+		try {
+			while (!shutdown) {
+				connectPending();
+				selector.select(SELECT_TIMEOUT);
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					final Request request = (Request)key.attachment();
+					try {
+						if (key.isConnectable()) {
+							request.channel.finishConnect();
+							request.deadline = System.currentTimeMillis() + readTimeout;
+							key.interestOps(SelectionKey.OP_WRITE);
+						} else if (key.isWritable()) {
+							request.channel.write(request.out);
+							if (!request.out.hasRemaining()) {
+								key.interestOps(SelectionKey.OP_READ);
+							}
+						} else if (key.isReadable()) {
+							read(request);
+						}
+					} catch (IOException e) {
+						fail(request, e);
+					}
+				}
+				checkTimeouts();
+			}
+		} catch (IOException e) {
+			Env.getLogger().severe("Probe event loop failed: " + e.getMessage());
+		} finally {
+			for (Request request : active) {
+				close(request);
+			}
+			active.clear();
+			activeCount = 0;
+			try {
+				selector.close();
+			} catch (IOException e) {}
+		}
+	}
+	
+	/**
+	 * Open connections for the queued requests, as long as the connections are allowed
+	 */
+	private void connectPending() {
+		while (active.size() < maxConnections) {
+			final Request request;
+			try {
+				request = pending.poll(0);
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (request == null) {
+				return;
+			}
+			InetAddress[] addresses = null;
+			IOException failure = null;
+			try {
+				addresses = getResolvedAddresses(request);
+				if (addresses == null) {
+					continue;
+				}
+			} catch (UnknownHostException e) {
+				// the failure is reported when the request is connected
+				failure = e;
+			}
+			queuedCount.decrementAndGet();
+			active.add(request);
+			activeCount = active.size();
+			try {
+				final int port = request.uri.getPort() == -1 ? 80 : request.uri.getPort();
+				request.out = ByteBuffer.wrap(buildRequest(request, port).getBytes("ISO-8859-1"));
+				request.in = ByteBuffer.allocate(MAX_HEADER_SIZE);
+				request.deadline = System.currentTimeMillis() + connectTimeout;
+				if (failure != null) {
+					throw failure;
+				}
+				final InetSocketAddress address = new InetSocketAddress(addresses[0], port);
+				request.channel = SocketChannel.open();
+				request.channel.configureBlocking(false);
+				if (request.channel.connect(address)) {
+					request.channel.register(selector, SelectionKey.OP_WRITE, request);
+				} else {
+					request.channel.register(selector, SelectionKey.OP_CONNECT, request);
+				}
+			} catch (IOException e) {
+				fail(request, e);
+			}
+		}
+	}
+	
+	/**
+	 * Get the addresses of the host of given request if it is resolved, the loop never waits for the DNS.
+	 * Otherwise the host is released and the request is queued again once the host is resolved
+	 * 
+	 * @param request
+	 * @return null if the host is not resolved yet
+	 * @throws UnknownHostException
+	 * 		if the host can not be resolved
+	 */
+	private InetAddress[] getResolvedAddresses(final Request request) throws UnknownHostException {
+		final InetAddress[] addresses = resolver.getCachedAddresses(request.host);
+		if (addresses != null) {
+			return addresses;
+		}
+		pending.release(request.host);
+		resolver.prefetch(request.host, new Runnable() {
+			public void run() {
+				if (!shutdown) {
+					pending.add(request.host, request);
+					selector.wakeup();
+				}
+			}
+		});
+		return null;
+	}
+	
+	private static String buildRequest(Request request, int port) {
+		final StringBuilder sb = new StringBuilder();
+		final String path = request.uri.getRawPath() == null || request.uri.getRawPath().length() == 0 ? "/" : request.uri.getRawPath();
+		sb.append(request.method).append(' ').append(path);
+		if (request.uri.getRawQuery() != null) {
+			sb.append('?').append(request.uri.getRawQuery());
+		}
+		sb.append(" HTTP/1.1\r\n");
+		sb.append("Host: ").append(request.uri.getHost());
+		if (port != 80) {
+			sb.append(':').append(port);
+		}
+		sb.append("\r\n");
+		sb.append("User-Agent: Java/").append(System.getProperty("java.version")).append("\r\n");
+		sb.append("Accept: */*\r\n");
+		sb.append("Connection: close\r\n");
+		for (Map.Entry<String, String> header : request.headers.entrySet()) {
+			sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+		}
+		sb.append("\r\n");
+		return sb.toString();
+	}
+	
+	/**
+	 * Read the response headers, the connection is closed as soon as the headers are complete
+	 * 
+	 * @param request
+	 * @throws IOException
+	 */
+	private void read(final Request request) throws IOException {
+		final int count = request.channel.read(request.in);
+		final int headerEnd = findHeaderEnd(request.in);
+		if (headerEnd >= 0) {
+			final TransportResponse response = parseResponse(request.in, headerEnd);
+			finish(request);
+			final String location = response.getHeader("Location");
+			if (isRedirect(response.getStatusCode()) && location != null && request.redirects < MAX_REDIRECTS) {
+				final URI target = request.uri.resolve(location.trim());
+				if (accepts(target.toString()) && target.getHost() != null) {
+					// follow the plain HTTP redirect, other schemes are left to the handler
+					queue(new Request(request.method, target, request.headers, request.handler, request.redirects + 1));
+					return;
+				}
+			}
+			dispatch(new Runnable() {
+				public void run() {
+					request.handler.responseReceived(response);
+				}
+			});
+		} else if (count == -1) {
+			throw new IOException("Connection closed before the response headers of " + request.uri);
+		} else if (!request.in.hasRemaining()) {
+			throw new IOException("Response headers of " + request.uri + " exceed " + MAX_HEADER_SIZE + " bytes");
+		}
+	}
+	
+	private static boolean isRedirect(int statusCode) {
+		return statusCode == 301 || statusCode == 302 || statusCode == 303 || statusCode == 307 || statusCode == 308;
+	}
+	
+	/**
+	 * Return the position after the empty line that ends the headers, -1 if not received yet
+	 * 
+	 * @param in
+	 * @return
+	 */
+	private static int findHeaderEnd(ByteBuffer in) {
+		final int end = in.position();
+		for (int i = 3; i < end; i ++) {
+			if (in.get(i) == '\n' && in.get(i - 1) == '\r' && in.get(i - 2) == '\n' && in.get(i - 3) == '\r') {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+	
+	private static TransportResponse parseResponse(ByteBuffer in, int headerEnd) throws IOException {
+		final String text = new String(in.array(), 0, headerEnd, "ISO-8859-1");
+		final String[] lines = text.split("\r\n");
+		// HTTP/1.1 200 OK
+		final String[] statusLine = lines[0].split(" ", 3);
+		int statusCode = -1;
+		if (statusLine.length >= 2 && statusLine[0].startsWith("HTTP/")) {
+			try {
+				statusCode = Integer.parseInt(statusLine[1]);
+			} catch (NumberFormatException e) {
+				statusCode = -1;
+			}
+		}
+		final Map<String, String> headers = new HashMap<String, String>();
+		for (int i = 1; i < lines.length; i ++) {
+			final int colonPos = lines[i].indexOf(':');
+			if (colonPos > 0) {
+				final String name = lines[i].substring(0, colonPos).trim().toLowerCase();
+				if (!headers.containsKey(name)) {
+					headers.put(name, lines[i].substring(colonPos + 1).trim());
+				}
+			}
+		}
+		return new TransportResponse(statusCode, headers, null);
+	}
+	
+	private void checkTimeouts() {
+		if (active.isEmpty()) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		for (Request request : active.toArray(new Request[active.size()])) {
+			if (request.deadline <= now) {
+				fail(request, new SocketTimeoutException("Request for " + request.uri + " timed out"));
+			}
+		}
+	}
+	
+	private void fail(final Request request, final IOException e) {
+		finish(request);
+		dispatch(new Runnable() {
+			public void run() {
+				request.handler.requestFailed(e);
+			}
+		});
+	}
+	
+	/**
+	 * Run the handler on a callback thread, the handlers are dropped after shutdown
+	 * 
+	 * @param callback
+	 */
+	private void dispatch(Runnable callback) {
+		try {
+			callbacks.execute(callback);
+		} catch (RejectedExecutionException e) {
+			// shut down
+		}
+	}
+	
+	/**
+	 * Close the connection and release its host
+	 * 
+	 * @param request
+	 */
+	private void finish(Request request) {
+		if (active.remove(request)) {
+			activeCount = active.size();
+			close(request);
+			pending.release(request.host);
+			completedCount.incrementAndGet();
+		}
+	}
+	
+	private static void close(Request request) {
+		if (request.channel != null) {
+			try {
+				request.channel.close();
+			} catch (IOException e) {}
+		}
+	}
+}
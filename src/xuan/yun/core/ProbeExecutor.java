@@ -0,0 +1,243 @@
+/**
+ *  ProbeExecutor runs the remote file info queries with a bounded number of threads. 
+ *  In virtual thread mode every query runs on its own virtual thread, and a semaphore bounds the queries in flight
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ProbeExecutor {
+
+	/**
+	 * A queued probe and the host it connects to
+	 */
+	private static class Probe {
+		final String host;
+		final Runnable proc;
+		Probe(String host, Runnable proc) {
+			this.host = host;
+			this.proc = proc;
+		}
+	}
+
+	private static int threadId = 0;
+
+	private final int maxProbes;
+	private final int queueCapacity;
+
+	// the queued probes, handed out round-robin across the hosts
+	private final HostScheduler<Probe> probes;
+
+	private final List<Thread> threads = new ArrayList<Thread>();
+	
+	private final Semaphore permits;	// null unless the probes run on virtual threads
+
+	private volatile boolean shutdown = false;
+
+	private final AtomicInteger queuedCount = new AtomicInteger();	// probes waiting for a thread
+	private final AtomicInteger activeCount = new AtomicInteger();	// probes in flight
+	private final AtomicLong completedCount = new AtomicLong();		// probes finished
+	
+	private final Object room = new Object();	// notified when a queued probe is taken or a probe finishes
+
+	/**
+	 * Create executor with given limits
+	 *
+	 * @param maxProbes
+	 * 		maximum number of probes in flight
+	 * @param queueCapacity
+	 * 		maximum number of probes waiting for a thread, 0 means unbounded.
+	 * 		if the queue is full, the submitter waits until a probe is taken.
+	 * @param hostPermits
+	 * 		the connections of each host, shared with the downloads
+	 * @param virtual
+	 * 		if every probe runs on its own virtual thread
+	 */
+	public ProbeExecutor(int maxProbes, int queueCapacity, HostPermits hostPermits, boolean virtual) {
+		super();
+		this.maxProbes = maxProbes;
+		this.queueCapacity = queueCapacity;
+		probes = new HostScheduler<Probe>(hostPermits);
+		permits = virtual ? new Semaphore(maxProbes) : null;
+	}
+
+	private static synchronized int nextThreadId() {
+		return threadId ++;
+	}
+
+	/**
+	 * Queue the probe, it will be run when a probe thread and a connection to the host are available.
+	 * If the queue is full, the submitter waits as long as the probes in flight make room. 
+	 * It does not wait if no probe is in flight, e.g. the queued hosts have no free connection, 
+	 * since the submitter may hold a connection of those hosts itself
+	 *
+	 * @param url
+	 * 		the URL that the probe connects to
+	 * @param proc
+	 */
+	public void execute(String url, Runnable proc) {
+		if (queueCapacity > 0) {
+			synchronized (room) {
+				while (!shutdown && queuedCount.get() >= queueCapacity && activeCount.get() > 0) {
+					try {
+						room.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+		}
+		queue(url, proc);
+	}
+
+	/**
+	 * Queue the probe whether the queue is full or not, the probe never runs on the calling thread.
+	 * It is used by the threads that must not block, e.g. the retry scheduler
+	 *
+	 * @param url
+	 * @param proc
+	 */
+	public void queue(String url, Runnable proc) {
+		if (shutdown) {
+			return;
+		}
+		final String host = HostScheduler.getHost(url);
+		queuedCount.incrementAndGet();
+		probes.add(host, new Probe(host, proc));
+		if (permits != null) {
+			startVirtualThread();
+		} else {
+			startThreadIfNeeded();
+		}
+	}
+	
+	/**
+	 * Start a virtual thread for the probe just queued, 
+	 * it runs the next probe that is allowed to connect when a permit is available
+	 */
+	private void startVirtualThread() {
+		synchronized (threads) {
+			if (shutdown) {
+				return;
+			}
+			final Thread thread = VirtualThreads.newThread("Probe #" + nextThreadId(), new Runnable() {
+				public void run() {
+					try {
+						permits.acquire();
+						try {
+							final Probe probe = probes.take();
+							queuedCount.decrementAndGet();
+							notifyRoom();
+							try {
+								ProbeExecutor.this.run(probe.proc);
+							} finally {
+								probes.release(probe.host);
+							}
+						} finally {
+							permits.release();
+						}
+					} catch (InterruptedException e) {
+						// shut down
+					} finally {
+						synchronized (threads) {
+							threads.remove(Thread.currentThread());
+						}
+					}
+				}
+			}, true);
+			threads.add(thread);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Start a new probe thread if the queued probes outnumber the threads
+	 */
+	private void startThreadIfNeeded() {
+		synchronized (threads) {
+			if (shutdown || threads.size() >= maxProbes || threads.size() >= queuedCount.get() + activeCount.get()) {
+				return;
+			}
+			final Thread thread = new Thread("Probe #" + nextThreadId()) {
+				public void run() {
+					while (!shutdown) {
+						final Probe probe;
+						try {
+							probe = probes.take();
+						} catch (InterruptedException e) {
+							break;
+						}
+						queuedCount.decrementAndGet();
+						notifyRoom();
+						try {
+							ProbeExecutor.this.run(probe.proc);
+						} finally {
+							probes.release(probe.host);
+						}
+					}
+				}
+			};
+			thread.setDaemon(true);
+			threads.add(thread);
+			thread.start();
+		}
+	}
+
+	private void run(Runnable proc) {
+		activeCount.incrementAndGet();
+		try {
+			proc.run();
+		} finally {
+			activeCount.decrementAndGet();
+			completedCount.incrementAndGet();
+			notifyRoom();
+		}
+	}
+
+	/**
+	 * Wake up the submitters waiting for room in the queue
+	 */
+	private void notifyRoom() {
+		if (queueCapacity > 0) {
+			synchronized (room) {
+				room.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Drop the queued probes and interrupt the running ones
+	 */
+	public void shutdown() {
+		shutdown = true;
+		probes.clear();
+		queuedCount.set(0);
+		notifyRoom();
+		synchronized (threads) {
+			for (Thread thread : threads) {
+				thread.interrupt();
+			}
+			threads.clear();
+		}
+	}
+
+	public int getQueuedCount() {
+		return queuedCount.get();
+	}
+
+	public int getActiveCount() {
+		return activeCount.get();
+	}
+
+	public long getCompletedCount() {
+		return completedCount.get();
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ *  RetryScheduler runs the retries of failed requests when their backoff delays expire.
+ *  The delay grows exponentially with jitter, a Retry-After header of 429/503 responses is honored
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RetryScheduler {
+
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+	private static final int HTTP_UNAVAILABLE = 503;
+
+	/**
+	 * A retry waiting for its time, the retries with the same time run in scheduled order
+	 */
+	private static class Retry implements Delayed {
+		final Runnable action;
+		final long dueTime;	// ms
+		final long sequence;
+		Retry(Runnable action, long dueTime, long sequence) {
+			this.action = action;
+			this.dueTime = dueTime;
+			this.sequence = sequence;
+		}
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(dueTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+		public int compareTo(Delayed o) {
+			final Retry other = (Retry)o;
+			if (dueTime != other.dueTime) {
+				return dueTime < other.dueTime ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+
+	private static final Random RANDOM = new Random();
+
+	private final DelayQueue<Retry> retries = new DelayQueue<Retry>();
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private Thread thread = null;
+
+	private volatile boolean shutdown = false;
+
+	/**
+	 * Run the action after given delay, the action must not block.
+	 * The retries scheduled after shutdown() are dropped
+	 *
+	 * @param delay
+	 * 		ms
+	 * @param action
+	 */
+	public void schedule(long delay, Runnable action) {
+		if (shutdown) {
+			return;
+		}
+		retries.add(new Retry(action, System.currentTimeMillis() + delay, sequence.getAndIncrement()));
+		startThreadIfNeeded();
+	}
+
+	private synchronized void startThreadIfNeeded() {
+		if (thread != null || shutdown) {
+			return;
+		}
+		thread = new Thread("Retry Scheduler") {
+			public void run() {
+				while (!shutdown) {
+					final Retry retry;
+					try {
+						retry = retries.take();
+					} catch (InterruptedException e) {
+						break;
+					}
+					try {
+						retry.action.run();
+					} catch (RuntimeException e) {
+						Env.getLogger().severe("Retry failed: " + e.getMessage());
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Drop the waiting retries and stop the scheduler thread
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		retries.clear();
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	/**
+	 * Return the number of waiting retries
+	 *
+	 * @return
+	 */
+	public int size() {
+		return retries.size();
+	}
+
+	/**
+	 * Check if the response asks the client to retry later
+	 *
+	 * @param statusCode
+	 * @return
+	 */
+	public static boolean isRetryable(int statusCode) {
+		return statusCode == HTTP_TOO_MANY_REQUESTS || statusCode == HTTP_UNAVAILABLE;
+	}
+
+	/**
+	 * Return the delay before given retry.
+	 * It is the Retry-After of a 429/503 response if present, otherwise RETRY_BASE_DELAY doubled for each failure,
+	 * with random jitter of up to half. Both are limited to RETRY_MAX_DELAY
+	 *
+	 * @param failureCount
+	 * 		number of failed attempts, at least 1
+	 * @param response
+	 * 		response of the last attempt, null if it failed without response
+	 * @return
+	 * 		ms
+	 */
+	public static long getRetryDelay(int failureCount, TransportResponse response) {
+		final long maxDelay = Env.getIntegerSetting(Env.RETRY_MAX_DELAY);
+		if (response != null && isRetryable(response.getStatusCode())) {
+			final long retryAfter = parseRetryAfter(response.getHeader("Retry-After"));
+			if (retryAfter >= 0) {
+				return Math.min(retryAfter, maxDelay);
+			}
+		}
+		final long baseDelay = Env.getIntegerSetting(Env.RETRY_BASE_DELAY);
+		final long delay = Math.min(baseDelay << Math.min(Math.max(failureCount - 1, 0), 20), maxDelay);
+		final long jitter;
+		synchronized (RANDOM) {
+			jitter = (long)(RANDOM.nextDouble() * (delay / 2));
+		}
+		return delay - jitter;
+	}
+
+	/**
+	 * Parse the Retry-After header, in seconds or an HTTP date
+	 *
+	 * @param value
+	 * @return
+	 * 		ms, -1 if the value is absent or invalid
+	 */
+	private static long parseRetryAfter(String value) {
+		if (value == null) {
+			return -1;
+		}
+		value = value.trim();
+		try {
+			return Math.max(Long.parseLong(value), 0) * 1000;
+		} catch (NumberFormatException e) {
+			// not seconds, try the date
+		}
+		try {
+			final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+			return Math.max(format.parse(value).getTime() - System.currentTimeMillis(), 0);
+		} catch (ParseException e) {
+			return -1;
+		}
+	}
+}
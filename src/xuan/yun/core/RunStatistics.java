@@ -0,0 +1,73 @@
+/**
+ *  RunStatistics collects the per-link latency and memory usage of a run
+ *  
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.util.Arrays;
+
+public class RunStatistics {
+
+	private long[] latencies = new long[1024];	// time (ms) used by the checked links
+	private int linksCount = 0;
+	
+	private long peakHeapSize = 0;	// peak used heap size sampled when a link is checked
+
+	/**
+	 * Record the latency of the checked link, and sample the heap usage
+	 * 
+	 * @param info
+	 */
+	public synchronized void linkChecked(FileInfo info) {
+		if (linksCount == latencies.length) {
+			latencies = Arrays.copyOf(latencies, linksCount * 2);
+		}
+		latencies[linksCount ++] = info.getUsedTime();
+		sampleHeapSize();
+	}
+	
+	/**
+	 * Update the peak heap size with current heap usage
+	 */
+	public synchronized void sampleHeapSize() {
+		final Runtime runtime = Runtime.getRuntime();
+		peakHeapSize = Math.max(peakHeapSize, runtime.totalMemory() - runtime.freeMemory());
+	}
+
+	/**
+	 * Return the number of links checked
+	 * 
+	 * @return
+	 */
+	public synchronized int getLinksCount() {
+		return linksCount;
+	}
+	
+	/**
+	 * Return the latency (ms) that given percent of the checked links are within
+	 * 
+	 * @param percent
+	 * 		1 - 100
+	 * @return 0 if no link is checked
+	 */
+	public synchronized long getLatencyPercentile(int percent) {
+		if (linksCount == 0) {
+			return 0;
+		}
+		final long[] sorted = Arrays.copyOf(latencies, linksCount);
+		Arrays.sort(sorted);
+		final int rank = (int)Math.ceil(percent * linksCount / 100.0);
+		return sorted[Math.min(Math.max(rank, 1), linksCount) - 1];
+	}
+	
+	/**
+	 * Return the peak used heap size (bytes)
+	 * 
+	 * @return
+	 */
+	public synchronized long getPeakHeapSize() {
+		return peakHeapSize;
+	}
+}
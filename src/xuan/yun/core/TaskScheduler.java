@@ -0,0 +1,137 @@
+/**
+ *  TaskScheduler queues the download tasks for the download threads, the tasks are handed out per host
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class TaskScheduler {
+
+	// the queued tasks, only one waiting consumer is woken per task
+	private final HostScheduler<DownloadTask> tasks;
+
+	// the unfinished tasks for certain URL, each set is guarded by itself
+	private final ConcurrentMap<String, Set<DownloadTask>> fileTasksMap = new ConcurrentHashMap<String, Set<DownloadTask>>();
+
+	/**
+	 * Create scheduler which takes the connections from given permits
+	 *
+	 * @param permits
+	 * 		the connections of each host, shared with the probes
+	 */
+	public TaskScheduler(HostPermits permits) {
+		super();
+		tasks = new HostScheduler<DownloadTask>(permits);
+	}
+
+	/**
+	 * Queue the task, a task that is returned for retry keeps its place in the unfinished tasks of its URL
+	 *
+	 * @param task
+	 */
+	public void add(DownloadTask task) {
+		final Set<DownloadTask> fileTasks = getFileTasks(task.getUrl());
+		synchronized (fileTasks) {
+			fileTasks.add(task);
+		}
+		tasks.add(HostScheduler.getHost(task.getUrl()), task);
+	}
+
+	/**
+	 * Split the tail of a running task and queue it. The new task is registered before the end of the running task moves back, 
+	 * so the file can not be seen finished with the tail not downloaded
+	 *
+	 * @param task
+	 * @param minSize
+	 * 		the minimum size of the new task
+	 * @return the new task, null if the task is finished or too small to split
+	 */
+	public DownloadTask split(DownloadTask task, long minSize) {
+		final Set<DownloadTask> fileTasks = getFileTasks(task.getUrl());
+		final DownloadTask newTask;
+		synchronized (fileTasks) {
+			if (!fileTasks.contains(task)) {
+				return null;
+			}
+			newTask = task.splitTask(minSize);
+			if (newTask == null) {
+				return null;
+			}
+			fileTasks.add(newTask);
+		}
+		tasks.add(HostScheduler.getHost(newTask.getUrl()), newTask);
+		return newTask;
+	}
+
+	/**
+	 * Take the next task, wait if there is no task queued
+	 *
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public DownloadTask take() throws InterruptedException {
+		return tasks.take();
+	}
+
+	/**
+	 * Take the next task, wait at most given time
+	 * 
+	 * @param timeout
+	 * 		maximum time (ms) to wait
+	 * @return null if timeout
+	 * @throws InterruptedException
+	 */
+	public DownloadTask poll(long timeout) throws InterruptedException {
+		return tasks.poll(timeout);
+	}
+
+	/**
+	 * Release the connection of the task, call this method when a download thread stops working on the task
+	 *
+	 * @param task
+	 */
+	public void release(DownloadTask task) {
+		tasks.release(HostScheduler.getHost(task.getUrl()));
+	}
+
+	/**
+	 * Mark the task as finished
+	 *
+	 * @param task
+	 * @return true if all tasks for the URL of given task are finished
+	 */
+	public boolean finish(DownloadTask task) {
+		final Set<DownloadTask> fileTasks = getFileTasks(task.getUrl());
+		synchronized (fileTasks) {
+			fileTasks.remove(task);
+			return fileTasks.isEmpty();
+		}
+	}
+
+	/**
+	 * Return the number of queued tasks
+	 *
+	 * @return
+	 */
+	public int getQueuedCount() {
+		return tasks.size();
+	}
+
+	private Set<DownloadTask> getFileTasks(String url) {
+		Set<DownloadTask> fileTasks = fileTasksMap.get(url);
+		if (fileTasks == null) {
+			final Set<DownloadTask> newTasks = new HashSet<DownloadTask>();
+			fileTasks = fileTasksMap.putIfAbsent(url, newTasks);
+			if (fileTasks == null) {
+				fileTasks = newTasks;
+			}
+		}
+		return fileTasks;
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ *  TransportResponse is the response returned by HttpTransport
+ *  
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+public class TransportResponse {
+
+	private final int statusCode;
+	private final Map<String, String> headers;	// header names are in lower case
+	private final InputStream body;
+
+	public TransportResponse(int statusCode, Map<String, String> headers, InputStream body) {
+		super();
+		this.statusCode = statusCode;
+		this.headers = headers;
+		this.body = body == null ? new ByteArrayInputStream(new byte[0]) : body;
+	}
+
+	/**
+	 * Return the status code, -1 if the response is not valid HTTP
+	 * 
+	 * @return
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * Return the value of given header, null if the header is not present
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public String getHeader(String name) {
+		return headers.get(name.toLowerCase());
+	}
+
+	public String getContentType() {
+		return getHeader("Content-Type");
+	}
+
+	/**
+	 * Return the content length, -1 if unknown
+	 * 
+	 * @return
+	 */
+	public long getContentLength() {
+		final String length = getHeader("Content-Length");
+		try {
+			return length == null ? -1 : Long.parseLong(length.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	public InputStream getBody() {
+		return body;
+	}
+
+	/**
+	 * Close the body, the connection may be reused if the body is fully read
+	 */
+	public void close() {
+		try {
+			body.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * Drop the connection without reading the rest of the body
+	 */
+	public void abort() {
+		close();
+	}
+}
@@ -0,0 +1,54 @@
+/**
+ *  UrlConnectionTransport sends the requests with HttpURLConnection (HTTP/1.1)
+ *  
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import xuan.yun.core.intf.HttpTransport;
+
+public class UrlConnectionTransport implements HttpTransport {
+
+	public TransportResponse send(String method, String url, Map<String, String> headers) throws IOException {
+		final URLConnection conn = new URL(url).openConnection();
+		if (!(conn instanceof HttpURLConnection)) {
+			throw new IOException("Unsupported protocol: " + url);
+		}
+		final HttpURLConnection httpConn = (HttpURLConnection)conn;
+		httpConn.setConnectTimeout(Env.getIntegerSetting(Env.CONNECTION_TIMEOUT));
+		httpConn.setReadTimeout(Env.getIntegerSetting(Env.READ_TIMEOUT));
+		httpConn.setAllowUserInteraction(true);
+		httpConn.setRequestMethod(method);
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			httpConn.setRequestProperty(header.getKey(), header.getValue());
+		}
+		int statusCode;
+		try {
+			statusCode = httpConn.getResponseCode();
+		} catch (RuntimeException e) {
+			statusCode = -1;
+		}
+		final Map<String, String> responseHeaders = new HashMap<String, String>();
+		for (Map.Entry<String, List<String>> header : httpConn.getHeaderFields().entrySet()) {
+			if (header.getKey() != null && !header.getValue().isEmpty()) {
+				responseHeaders.put(header.getKey().toLowerCase(), header.getValue().get(0));
+			}
+		}
+		final InputStream body = statusCode >= 200 && statusCode < 400 ? httpConn.getInputStream() : httpConn.getErrorStream();
+		return new TransportResponse(statusCode, responseHeaders, body) {
+			public void abort() {
+				httpConn.disconnect();
+			}
+		};
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ *  VirtualThreads creates the probe and download threads as virtual threads if THREAD_MODE is "virtual".
+ *  The virtual threads are looked up by reflection, the platform threads are used on the JDK without them
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.lang.reflect.Method;
+
+public class VirtualThreads {
+
+	private static Method ofVirtual = null;	// Thread.ofVirtual()
+	private static Method name = null;		// Thread.Builder.name(String)
+	private static Method unstarted = null;	// Thread.Builder.unstarted(Runnable)
+	static {
+		try {
+			final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			name = builder.getMethod("name", String.class);
+			unstarted = builder.getMethod("unstarted", Runnable.class);
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+		} catch (Exception e) {
+			// the JDK has no virtual threads
+		}
+	}
+
+	private static volatile boolean available = true;	// false after the virtual thread fails to be created
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Check if the virtual threads are requested by THREAD_MODE and supported by the JDK
+	 *
+	 * @return
+	 */
+	public static boolean isEnabled() {
+		if (!"virtual".equalsIgnoreCase(Env.getSetting(Env.THREAD_MODE))) {
+			return false;
+		}
+		if (ofVirtual == null || !available) {
+			Env.getLogger().warning("Virtual threads are not supported by Java " + System.getProperty("java.version") + ", use the platform threads instead.");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Create an unstarted thread to run the task, a virtual thread if isEnabled() returns true.
+	 * The virtual threads are always daemon threads
+	 *
+	 * @param threadName
+	 * @param task
+	 * @param daemon
+	 * 		if the platform thread is a daemon thread
+	 * @return
+	 */
+	public static Thread newThread(String threadName, Runnable task, boolean daemon) {
+		if (ofVirtual != null && available && "virtual".equalsIgnoreCase(Env.getSetting(Env.THREAD_MODE))) {
+			try {
+				return (Thread)unstarted.invoke(name.invoke(ofVirtual.invoke(null), threadName), task);
+			} catch (Exception e) {
+				// e.g. the virtual threads are a preview feature which is not enabled
+				available = false;
+				Env.getLogger().warning("Can not create virtual thread, use the platform threads instead. " + e);
+			}
+		}
+		final Thread thread = new Thread(task, threadName);
+		thread.setDaemon(daemon);
+		return thread;
+	}
+}
@@ -0,0 +1,22 @@
+/**
+ *  The batch state listener for LinkCheckerCore, the changes are delivered periodically
+ *  
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core.intf;
+
+import java.util.List;
+
+import xuan.yun.core.FileInfo;
+
+public interface CoreBatchListener {
+
+	/**
+	 * Will be called on every tick if any link is added, downloading, passed or failed since last tick
+	 * 
+	 * @param changedLinks
+	 * 		the links changed since last tick, each link appears once
+	 */
+	public void linksChanged(List<FileInfo> changedLinks);
+}
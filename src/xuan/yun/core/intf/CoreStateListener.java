@@ -21,7 +21,7 @@ public interface CoreStateListener {
 	public void noLinkFound();
 
 	/**
-	 * Will be called when the link is downloading data
+	 * Will be called when the link is downloading data, at most once per link in each tick of EVENT_BATCH_INTERVAL
 	 * 
 	 * @param info
 	 */
@@ -0,0 +1,29 @@
+/**
+ *  The DataSink receives the data downloaded by DownloadThread
+ *  
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core.intf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface DataSink {
+
+	/**
+	 * Write the remaining data of the buffer at given position of the file, the buffer is drained
+	 * 
+	 * @param position
+	 * @param data
+	 * @throws IOException
+	 */
+	public void write(long position, ByteBuffer data) throws IOException;
+	
+	/**
+	 * Release the resources of the sink
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+}
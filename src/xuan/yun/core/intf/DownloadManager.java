@@ -6,7 +6,10 @@
  */
 package xuan.yun.core.intf;
 
+import java.io.IOException;
+
 import xuan.yun.core.DownloadTask;
+import xuan.yun.core.DownloadThread;
 
 public interface DownloadManager {
 
@@ -18,11 +21,11 @@ public interface DownloadManager {
 	public boolean isRunning();
 
 	/**
-	 * Check if there is idle download thread
+	 * Return the transport to send the download requests
 	 * 
 	 * @return
 	 */
-	public boolean hasIdleDownloadThread();
+	public HttpTransport getHttpTransport();
 	
 	/**
 	 * Request download task from manager
@@ -36,6 +39,41 @@ public interface DownloadManager {
 	 */
 	public void addDownloadTask(DownloadTask task);
 	
+	/**
+	 * Add the failed download task to the manager after given delay
+	 * 
+	 * @param task
+	 * @param delay
+	 * 		ms
+	 */
+	public void retryDownloadTask(DownloadTask task, long delay);
+	
+	/**
+	 * Will be called when the download thread stops working on the task, 
+	 * whether the task is finished, terminated or returned for retry
+	 * 
+	 * @param task
+	 */
+	public void releaseDownloadTask(DownloadTask task);
+	
+	/**
+	 * Will be called when the server responds to a request
+	 * 
+	 * @param url
+	 * @param statusCode
+	 * @param latency
+	 * 		time (ms) from sending the request to receiving the response
+	 */
+	public void onResponseReceived(String url, int statusCode, long latency);
+	
+	/**
+	 * Will be called when a request fails without response
+	 * 
+	 * @param url
+	 * @param e
+	 */
+	public void onRequestFailed(String url, IOException e);
+	
 	/**
 	 * Will be called when dataLength bytes data are downloaded 
 	 * 
@@ -52,4 +90,11 @@ public interface DownloadManager {
 	 * Will be called when download is terminated
 	 */
 	public void onDownloadTerminated(DownloadTask task);
+	
+	/**
+	 * Will be called when the download thread exits
+	 * 
+	 * @param thread
+	 */
+	public void onDownloadThreadExit(DownloadThread thread);
 }
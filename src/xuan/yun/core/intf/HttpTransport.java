@@ -0,0 +1,29 @@
+/**
+ *  The HttpTransport sends the requests of LinkCheckerCore and DownloadThread
+ *  
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core.intf;
+
+import java.io.IOException;
+import java.util.Map;
+
+import xuan.yun.core.TransportResponse;
+
+public interface HttpTransport {
+
+	/**
+	 * Send the request and return when the response headers are received.
+	 * The response must be closed or aborted by the caller.
+	 * 
+	 * @param method
+	 * 		GET or HEAD
+	 * @param url
+	 * @param headers
+	 * 		extra request headers
+	 * @return
+	 * @throws IOException
+	 */
+	public TransportResponse send(String method, String url, Map<String, String> headers) throws IOException;
+}
@@ -0,0 +1,19 @@
+/**
+ *  The callback will be invoked when a link is found in a page
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core.intf;
+
+public interface LinkCallback {
+
+	/**
+	 * Call this method when a link is found
+	 *
+	 * @param link
+	 * 		the href value as it appears in the page
+	 */
+	public void linkFound(String link);
+
+}
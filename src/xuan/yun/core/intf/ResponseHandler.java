@@ -0,0 +1,28 @@
+/**
+ *  The ResponseHandler receives the result of an asynchronous request
+ *  
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core.intf;
+
+import java.io.IOException;
+
+import xuan.yun.core.TransportResponse;
+
+public interface ResponseHandler {
+
+	/**
+	 * Will be called when the response headers are received
+	 * 
+	 * @param response
+	 */
+	public void responseReceived(TransportResponse response);
+	
+	/**
+	 * Will be called when the request fails without response
+	 * 
+	 * @param e
+	 */
+	public void requestFailed(IOException e);
+}
@@ -23,6 +23,8 @@ import javax.swing.JSpinner;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextField;
 import javax.swing.SpinnerNumberModel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import xuan.yun.core.Env;
 import xuan.yun.core.LinkCheckerCore;
@@ -62,6 +64,15 @@ public class LinkCheckerFrame extends JFrame implements LinkChecker {
 			inputPanel.add(new JLabel(Env.getResourceBundle().getString("gui.input.max.thread")));
 			
 			maxThreadEdit = new JSpinner(new SpinnerNumberModel(5, 1, 20, 1));
+			maxThreadEdit.addChangeListener(new ChangeListener() {
+				public void stateChanged(ChangeEvent e) {
+					// resize the thread pool of the running check in current tab
+					final LinkCheckerView view = (LinkCheckerView)viewTabs.getSelectedComponent();
+					if (view != null && view.getCore().isRunning()) {
+						view.getCore().setMaxThreads((Integer)maxThreadEdit.getValue());
+					}
+				}
+			});
 			inputPanel.add(maxThreadEdit);
 			
 			final JButton checkButton = new JButton(Env.getResourceBundle().getString("gui.input.check.links"));
@@ -87,6 +98,15 @@ public class LinkCheckerFrame extends JFrame implements LinkChecker {
 					g.setColor(bkColor);
 				}
 			};
+			viewTabs.addChangeListener(new ChangeListener() {
+				public void stateChanged(ChangeEvent e) {
+					// show the thread number of the running check in current tab
+					final LinkCheckerView view = (LinkCheckerView)viewTabs.getSelectedComponent();
+					if (view != null && view.getCore().isRunning()) {
+						maxThreadEdit.setValue(view.getCore().getMaxThreads());
+					}
+				}
+			});
 			viewTabs.setPreferredSize(new Dimension(900, 600));
 			mainPanel.add(viewTabs, BorderLayout.CENTER);
 		}
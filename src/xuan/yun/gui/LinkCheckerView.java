@@ -16,6 +16,8 @@ import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.List;
+import java.util.Map;
 
 import javax.swing.BorderFactory;
 import javax.swing.JComponent;
@@ -28,6 +30,7 @@ import javax.swing.SwingUtilities;
 import xuan.yun.core.Env;
 import xuan.yun.core.FileInfo;
 import xuan.yun.core.LinkCheckerCore;
+import xuan.yun.core.intf.CoreBatchListener;
 import xuan.yun.core.intf.CoreStateListener;
 import xuan.yun.core.intf.LinkChecker;
 
@@ -45,6 +48,7 @@ public class LinkCheckerView extends JComponent {
 	private JLabel workingLinksLabel;
 	private JLabel downloadSizeLabel;
 	private JLabel downloadTimeLabel;
+	private JLabel connectionLimitsLabel;
 	
 	private LinkInfoTable infoTable;
 
@@ -65,16 +69,32 @@ public class LinkCheckerView extends JComponent {
 						JOptionPane.ERROR_MESSAGE);
 			}
 			public void linkDownloading(FileInfo info) {
-				updateView();
+				// updated in batch
 			}
 			public void linkCheckFailed(FileInfo info) {
-				updateView();
+				// updated in batch
 			}
 			public void linkCheckPassed(FileInfo info) {
-				updateView();
+				// updated in batch
 			}
 			public void allLinksChecked() {
-				updateView();
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						updateView();
+					}
+				});
+			}
+		});
+		core.addCoreBatchListener(new CoreBatchListener() {
+			public void linksChanged(final List<FileInfo> changedLinks) {
+				// refresh the view at most once per tick, in event dispatch thread
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						final LinkInfoTableModel model = (LinkInfoTableModel)infoTable.getModel();
+						model.linksChanged(changedLinks);
+						updateView();
+					}
+				});
 			}
 		});
 		
@@ -119,7 +139,7 @@ public class LinkCheckerView extends JComponent {
 				overviewPanel.add(pie, BorderLayout.WEST);
 			}
 			{
-				final JPanel itemsPanel = new JPanel(new GridLayout(3, 2));
+				final JPanel itemsPanel = new JPanel(new GridLayout(4, 2));
 				overviewPanel.add(itemsPanel, BorderLayout.CENTER);
 				
 				progressLabel = new JLabel();
@@ -139,6 +159,9 @@ public class LinkCheckerView extends JComponent {
 				
 				brokenLinksLabel = new JLabel();
 				itemsPanel.add(brokenLinksLabel);
+				
+				connectionLimitsLabel = new JLabel();
+				itemsPanel.add(connectionLimitsLabel);
 			}
 			
 			// Link Info Table
@@ -149,6 +172,15 @@ public class LinkCheckerView extends JComponent {
 		updateView();
 	}
 	
+	/**
+	 * Return the core shown in this view
+	 * 
+	 * @return
+	 */
+	public LinkCheckerCore getCore() {
+		return core;
+	}
+	
 	/**
 	 * Call this method to update the view display
 	 */
@@ -182,7 +214,13 @@ public class LinkCheckerView extends JComponent {
 		downloadTimeLabel.setText(Env.getResourceBundle().getString("gui.view.info.download.time")
 				.replaceFirst("__time__", String.format("%02d:%02d:%02d", hour, min, sec)));
 		
-		final LinkInfoTableModel model = (LinkInfoTableModel)infoTable.getModel();
-		model.fireTableDataChanged();
+		// the adaptive connection limits, hidden if the connections are fixed
+		final StringBuilder limits = new StringBuilder();
+		for (Map.Entry<String, Integer> entry : core.getHostConnectionLimits().entrySet()) {
+			limits.append(limits.length() == 0 ? "" : ", ").append(entry.getKey()).append(' ').append(entry.getValue());
+		}
+		connectionLimitsLabel.setText(limits.length() == 0 ? "" : Env.getResourceBundle().getString("gui.view.info.connection.limits")
+				.replace("__limits__", limits));
+		connectionLimitsLabel.setToolTipText(limits.length() == 0 ? null : limits.toString());
 	}
 }
@@ -6,7 +6,7 @@
  */
 package xuan.yun.gui;
 
-import java.util.LinkedHashMap;
+import java.util.List;
 
 import javax.swing.table.DefaultTableModel;
 
@@ -32,9 +32,17 @@ public class LinkInfoTableModel extends DefaultTableModel {
 		
 	private LinkCheckerCore core;
 	
+	private int rowCount = 0;	// the number of rows that the table knows
+	
+	private int runId;	// the run of the core that the rows belong to
+	
 	public LinkInfoTableModel(LinkCheckerCore core) {
 		super();
 		this.core = core;
+		if (core != null) {
+			rowCount = core.getTotalLinksCount();
+			runId = core.getRunId();
+		}
 	}
 
 	public boolean isCellEditable(int row, int column) {
@@ -50,17 +58,14 @@ public class LinkInfoTableModel extends DefaultTableModel {
 	}
 	
 	public int getRowCount() {
-		if (core == null) {
-			return 0;
-		}
-		return core.getTotalLinksCount();
+		return rowCount;
 	}
 
 	public Object getValueAt(int row, int column) {
-		if (row < 0 || row >= core.getTotalLinksCount()) {
+		if (row < 0 || row >= rowCount) {
 			return null;
 		}
-		final FileInfo info = getFileInfoByRow(row);
+		final FileInfo info = core.getFileInfo(row);
 		if (info != null) {
 			switch (column) {
 			case -1:
@@ -87,22 +92,40 @@ public class LinkInfoTableModel extends DefaultTableModel {
 	}
 	
 	/**
-	 * Return the FileInfo object for given row index
+	 * Insert the rows of new links, and update the rows of given links. 
+	 * Must be called in event dispatch thread
 	 * 
-	 * @param row
-	 * @return
+	 * @param changedLinks
 	 */
-	private FileInfo getFileInfoByRow(int row) {
-		final LinkedHashMap<String, FileInfo> map = (LinkedHashMap<String, FileInfo>)core.getFileInfoMap();
-		int i = 0;
-		FileInfo info = null;
-		for (FileInfo infoObj : map.values()) {
-			if (i == row) {
-				info = infoObj;
-				break;
+	public void linksChanged(List<FileInfo> changedLinks) {
+		if (core == null) {
+			return;
+		}
+		if (core.getRunId() != runId) {
+			// the core is restarted, the links are found again from the first row
+			runId = core.getRunId();
+			clear();
+		}
+		final int oldRowCount = rowCount;
+		final int newRowCount = core.getTotalLinksCount();
+		if (newRowCount > oldRowCount) {
+			rowCount = newRowCount;
+			fireTableRowsInserted(oldRowCount, newRowCount - 1);
+		}
+		for (FileInfo info : changedLinks) {
+			final int row = info.getIndex();
+			if (row >= 0 && row < oldRowCount) {
+				fireTableRowsUpdated(row, row);
 			}
-			i ++;
 		}
-		return info;
+	}
+	
+	/**
+	 * Drop all rows, the table knows no link until next change. 
+	 * Must be called in event dispatch thread
+	 */
+	public void clear() {
+		rowCount = 0;
+		fireTableDataChanged();
 	}
 }
@@ -0,0 +1,232 @@
+/**
+ *  CoreStressTest checks SyntheticSite crawls with many download threads, probe threads and host connections,
+ *  while reader threads read the links as the GUI does and the download threads are resized now and then.
+ *  The rounds take turns verifying and downloading, with the probe threads and with the non-blocking probe engine.
+ *  Each round must find exactly the links, broken links and bytes of the site, and the readers must never see
+ *  a link list and link map that disagree.
+ *  Usage: java xuan.yun.CoreStressTest [rounds] [pages] [links per page]
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import xuan.yun.core.Env;
+import xuan.yun.core.FileInfo;
+import xuan.yun.core.LinkCheckerCore;
+import xuan.yun.core.intf.CoreStateListener;
+
+public class CoreStressTest {
+
+	private static final int DOWNLOAD_THREADS = 20;	// the most the core allows
+	private static final int PROBE_THREADS = 64;
+	private static final int HOST_CONNECTIONS = 64;	// the whole site is on one host
+	private static final int READERS = 4;
+	private static final int RESIZE_INTERVAL = 200;
+	private static final long ROUND_TIMEOUT = 300000;
+
+	private final SyntheticSite site;
+	private final List<String> errors = new CopyOnWriteArrayList<String>();
+
+	public static void main(String[] args) throws Exception {
+		final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		final int pages = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+		final int linksPerPage = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+		Env.getLogger().setLevel(Level.OFF);
+		Env.putSetting(Env.LINK_CACHE_FILE, "");
+		Env.putSetting(Env.PROBE_MAX_THREAD_COUNT, PROBE_THREADS);
+		Env.putSetting(Env.HOST_MAX_CONNECTIONS, HOST_CONNECTIONS);
+		Env.putSetting(Env.CRAWL_MAX_DEPTH, 2);
+		Env.putSetting(Env.CRAWL_MAX_PAGES, Integer.MAX_VALUE);
+
+		boolean failed = false;
+		for (int round = 0; round < rounds && !failed; round ++) {
+			final boolean verifyOnly = round % 2 == 0;
+			final String engine = round % 4 < 2 ? "threads" : "nio";
+			Env.putSetting(Env.CHECK_VERIFY_ONLY, verifyOnly);
+			Env.putSetting(Env.PROBE_ENGINE, engine);
+			final SyntheticSite site = new SyntheticSite(pages, linksPerPage, round + 1);
+			site.start();
+			final CoreStressTest test = new CoreStressTest(site);
+			final long startTime = System.currentTimeMillis();
+			try {
+				failed = !test.run(verifyOnly, new Random(round));
+			} finally {
+				site.stop();
+			}
+			System.out.println("Round " + (round + 1) + " (" + (verifyOnly ? "verify" : "download") + ", " + engine + " probes): "
+					+ site.getLinksCount() + " links, " + site.getBrokenLinksCount() + " broken, "
+					+ (System.currentTimeMillis() - startTime) + " ms" + (failed ? " FAILED" : ""));
+			for (String error : test.errors.subList(0, Math.min(test.errors.size(), 20))) {
+				System.out.println("  " + error);
+			}
+		}
+		System.out.println(failed ? "FAILED" : "PASSED");
+		System.exit(failed ? 1 : 0);
+	}
+
+	public CoreStressTest(SyntheticSite site) {
+		super();
+		this.site = site;
+	}
+
+	private boolean run(boolean verifyOnly, final Random random) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		final LinkCheckerCore core = new LinkCheckerCore(site.getIndexUrl(), DOWNLOAD_THREADS);
+		core.addCoreStateListener(new CoreStateListener() {
+			public void linkCheckFailed(FileInfo info) {
+			}
+			public void linkCheckPassed(FileInfo info) {
+			}
+			public void linkDownloading(FileInfo info) {
+			}
+			public void allLinksChecked() {
+				done.countDown();
+			}
+			public void inputURLBroken() {
+				errors.add("The index page is broken");
+				done.countDown();
+			}
+			public void noLinkFound() {
+				errors.add("No link found");
+				done.countDown();
+			}
+		});
+		final List<Thread> readers = new ArrayList<Thread>();
+		for (int i = 0; i < READERS; i ++) {
+			final Random readerRandom = new Random(random.nextLong());
+			final Thread reader = new Thread("Reader #" + i) {
+				public void run() {
+					int lastCount = 0;
+					while (done.getCount() > 0 && !isInterrupted()) {
+						lastCount = read(core, lastCount, readerRandom);
+					}
+				}
+			};
+			readers.add(reader);
+		}
+		// the download threads are resized while they work
+		final Thread resizer = new Thread("Resizer") {
+			public void run() {
+				try {
+					while (done.getCount() > 0 && !isInterrupted()) {
+						Thread.sleep(RESIZE_INTERVAL);
+						core.setMaxThreads(1 + random.nextInt(DOWNLOAD_THREADS));
+					}
+				} catch (InterruptedException e) {
+					// stop
+				}
+			}
+		};
+		core.start();
+		for (Thread reader : readers) {
+			reader.start();
+		}
+		resizer.start();
+		if (!done.await(ROUND_TIMEOUT, TimeUnit.MILLISECONDS)) {
+			errors.add("Timeout, " + core.getCheckingLinksCount() + " links not checked");
+		}
+		done.countDown();
+		resizer.interrupt();
+		resizer.join();
+		for (Thread reader : readers) {
+			reader.interrupt();
+			reader.join();
+		}
+		core.stop();
+		Env.putSetting(Env.DOWNLOAD_MAX_THREAD_COUNT, DOWNLOAD_THREADS);
+		check(core, verifyOnly);
+		return errors.isEmpty();
+	}
+
+	/**
+	 * Read the links as the table does, the list and the map must agree and the list never shrinks
+	 *
+	 * @return the links count read
+	 */
+	private int read(LinkCheckerCore core, int lastCount, Random random) {
+		final int checkedCount = core.getWorkingLinksCount() + core.getBrokenLinksCount();
+		final int count = core.getTotalLinksCount();
+		if (count < lastCount) {
+			errors.add("The links count goes back from " + lastCount + " to " + count);
+		}
+		if (checkedCount > count) {
+			errors.add(checkedCount + " links checked of " + count + " found");
+		}
+		for (int i = 0; i < 100 && count > 0; i ++) {
+			final int index = random.nextInt(count);
+			final FileInfo info = core.getFileInfo(index);
+			if (info == null) {
+				errors.add("Row " + index + " of " + count + " is missing");
+			} else if (info.getIndex() != index) {
+				errors.add("Row " + index + " has index " + info.getIndex());
+			} else if (core.getFileInfoMap().get(info.getUrl()) != info) {
+				errors.add("Row " + index + " is not in the map: " + info.getUrl());
+			}
+		}
+		for (FileInfo info : core.getFileInfoMap().values()) {
+			// a link just found may be in the map before it gets its row
+			if (info.getIndex() >= 0 && core.getFileInfo(info.getIndex()) != info) {
+				errors.add(info.getUrl() + " is not in row " + info.getIndex());
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * The counts and sizes of the finished check must be the ones of the site
+	 */
+	private void check(LinkCheckerCore core, boolean verifyOnly) {
+		if (core.getTotalLinksCount() != site.getLinksCount() || core.getFileInfoMap().size() != site.getLinksCount()) {
+			errors.add(core.getTotalLinksCount() + " rows and " + core.getFileInfoMap().size() + " links in the map, " + site.getLinksCount() + " expected");
+		}
+		if (core.getBrokenLinksCount() != site.getBrokenLinksCount()
+				|| core.getWorkingLinksCount() != site.getLinksCount() - site.getBrokenLinksCount()) {
+			errors.add(core.getWorkingLinksCount() + " working and " + core.getBrokenLinksCount() + " broken links, "
+					+ (site.getLinksCount() - site.getBrokenLinksCount()) + " and " + site.getBrokenLinksCount() + " expected");
+		}
+		for (int i = 0; i < core.getTotalLinksCount(); i ++) {
+			final FileInfo info = core.getFileInfo(i);
+			if (info == null || info.getIndex() != i || core.getFileInfoMap().get(info.getUrl()) != info) {
+				errors.add("Row " + i + " does not match the map");
+				break;
+			}
+		}
+		long downloadedSize = 0;
+		long expectedSize = 0;
+		for (Map.Entry<String, Integer> link : site.getWorkingLinks().entrySet()) {
+			final FileInfo info = core.getFileInfoMap().get(link.getKey());
+			if (info == null) {
+				errors.add(link.getKey() + " is not found");
+				continue;
+			}
+			if (info.getState() != FileInfo.State.DOWNLOADED) {
+				errors.add(link.getKey() + " is " + info.getState());
+			}
+			// the pages are downloaded in both modes
+			if (!verifyOnly || link.getKey().endsWith(".html")) {
+				downloadedSize += info.getDownloadedSize();
+				expectedSize += link.getValue();
+				if (info.getDownloadedSize() != link.getValue()) {
+					errors.add(link.getKey() + " downloaded " + info.getDownloadedSize() + " bytes, " + link.getValue() + " expected");
+				}
+			}
+		}
+		if (downloadedSize != expectedSize) {
+			errors.add("The links downloaded " + downloadedSize + " bytes, " + expectedSize + " expected");
+		}
+		final long totalSize = verifyOnly ? site.getPagesSize() : site.getTotalSize();
+		if (core.getDownloadSize() != totalSize) {
+			errors.add(core.getDownloadSize() + " bytes downloaded, " + totalSize + " expected");
+		}
+	}
+}
@@ -0,0 +1,358 @@
+/**
+ *  SiteBenchmark runs the whole checker against a SyntheticSite on the loopback and reports links/s, KB/s,
+ *  p50/p99 latency per link and peak heap of each run. The runs are:
+ *  crawling the site verifying the links, crawling it downloading the links (each link must get exactly the size served),
+ *  downloading big files with the idle threads stealing blocks (the kept files must be intact),
+ *  and a link whose body stalls (the check must end with the link broken, not hang).
+ *  The link counts of each crawl must be the ones the site is generated with.
+ *  Usage: java xuan.yun.SiteBenchmark [pages] [links per page] [threads] [seed]
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import xuan.yun.core.Env;
+import xuan.yun.core.FileInfo;
+import xuan.yun.core.LinkCheckerCore;
+import xuan.yun.core.RunStatistics;
+import xuan.yun.core.intf.CoreStateListener;
+
+public class SiteBenchmark {
+
+	private static final int FILE_SIZE = 4 * 1024 * 1024;
+	private static final int FILE_COUNT = 8;
+	private static final int DOWNLOAD_THREADS = 16;
+	private static final int STEAL_SIZE = 1024;	// the idle threads steal tails down to this size, to split the blocks as often as possible
+	private static final int STALL_READ_TIMEOUT = 1000;
+	private static final long RUN_TIMEOUT = 300000;
+
+	private final SyntheticSite site;
+	private final int threads;
+	private volatile SyntheticSite keptSite = null;	// the kept files are checked when their links pass, null if the files are not kept
+	private volatile File keptDir = null;
+
+	/**
+	 * The result of a check run
+	 */
+	private static class RunResult {
+		LinkCheckerCore core;
+		boolean finished;
+		long time;
+		final List<String> brokenLinks = Collections.synchronizedList(new ArrayList<String>());
+		final List<String> incompleteLinks = Collections.synchronizedList(new ArrayList<String>());	// passed before downloaded completely
+	}
+
+	public static void main(String[] args) throws Exception {
+		final int pages = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		final int linksPerPage = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+		final int threads = args.length > 2 ? Integer.parseInt(args[2]) : Env.getIntegerSetting(Env.DOWNLOAD_MAX_THREAD_COUNT);
+		final long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+
+		// the kept files are created in a fresh directory, it must be set before any temporary file is created
+		final File tmpDir = new File(System.getProperty("java.io.tmpdir"), "LinkChkBench" + System.currentTimeMillis());
+		tmpDir.mkdirs();
+		System.setProperty("java.io.tmpdir", tmpDir.getAbsolutePath());
+		Env.getLogger().setLevel(Level.OFF);
+		Env.putSetting(Env.LINK_CACHE_FILE, "");
+
+		final SyntheticSite site = new SyntheticSite(pages, linksPerPage, seed);
+		site.start();
+		System.out.println("Site: " + pages + " pages, " + linksPerPage + " links per page, " + site.getLinksCount() + " links, "
+				+ site.getBrokenLinksCount() + " broken, " + site.getTotalSize() / 1024 + " KB, seed " + seed + ", " + threads + " threads");
+		final SiteBenchmark bench = new SiteBenchmark(site, threads);
+		boolean passed = true;
+		try {
+			passed &= bench.crawl(true);
+			passed &= bench.crawl(false);
+			passed &= bench.downloadFiles(tmpDir, seed);
+			passed &= bench.stalledLink("urlconnection");
+			passed &= bench.stalledLink("httpclient");
+		} finally {
+			site.stop();
+			for (File file : tmpDir.listFiles()) {
+				file.delete();
+			}
+			tmpDir.delete();
+		}
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+	public SiteBenchmark(SyntheticSite site, int threads) {
+		super();
+		this.site = site;
+		this.threads = threads;
+	}
+
+	/**
+	 * Crawl the pages of the site and check their links.
+	 * The counts must match the site, and each working link must be downloaded with the size served
+	 */
+	private boolean crawl(boolean verifyOnly) throws InterruptedException {
+		final String maxDepth = Env.getSetting(Env.CRAWL_MAX_DEPTH);
+		final String maxPages = Env.getSetting(Env.CRAWL_MAX_PAGES);
+		Env.putSetting(Env.CHECK_VERIFY_ONLY, verifyOnly);
+		Env.putSetting(Env.CRAWL_MAX_DEPTH, 2);
+		Env.putSetting(Env.CRAWL_MAX_PAGES, Integer.MAX_VALUE);
+		final int requestCount = site.getRequestCount();
+		final RunResult result;
+		try {
+			result = check(site.getIndexUrl(), threads);
+		} finally {
+			Env.putSetting(Env.CRAWL_MAX_DEPTH, maxDepth);
+			Env.putSetting(Env.CRAWL_MAX_PAGES, maxPages);
+			Env.putSetting(Env.CHECK_VERIFY_ONLY, true);
+		}
+		final LinkCheckerCore core = result.core;
+		boolean passed = result.finished;
+		String reason = describe(result);
+		if (passed && (core.getTotalLinksCount() != site.getLinksCount() || core.getBrokenLinksCount() != site.getBrokenLinksCount())) {
+			passed = false;
+			reason = core.getTotalLinksCount() + " links, " + core.getBrokenLinksCount() + " broken, "
+					+ site.getLinksCount() + " links, " + site.getBrokenLinksCount() + " broken expected";
+		}
+		if (passed && !verifyOnly) {
+			for (Map.Entry<String, Integer> link : site.getWorkingLinks().entrySet()) {
+				final FileInfo info = core.getFileInfoMap().get(link.getKey());
+				if (info == null || info.getDownloadedSize() != link.getValue()) {
+					passed = false;
+					reason = link.getKey() + " downloaded " + (info == null ? "never" : info.getDownloadedSize() + " bytes") + ", " + link.getValue() + " expected";
+					break;
+				}
+			}
+			if (passed && core.getDownloadSize() != site.getTotalSize()) {
+				passed = false;
+				reason = core.getDownloadSize() + " bytes downloaded, " + site.getTotalSize() + " expected";
+			}
+		}
+		System.out.println((verifyOnly ? "Verify" : "Download") + " crawl: " + describeStatistics(result) + ", "
+				+ (site.getRequestCount() - requestCount) + " requests" + (passed ? "" : " FAILED, " + reason));
+		return passed;
+	}
+
+	/**
+	 * Download the big files into the kept files, the blocks are stolen by idle threads.
+	 * A file must be complete when its link passes, and each kept file must match one of the served files
+	 */
+	private boolean downloadFiles(File tmpDir, long seed) throws Exception {
+		final SyntheticSite filesSite = new SyntheticSite(1, FILE_COUNT, seed);
+		filesSite.setBrokenPercent(0);
+		filesSite.setRedirectPercent(0);
+		filesSite.setResetPercent(0);
+		filesSite.setSlowPercent(0);
+		filesSite.setTruncatedPercent(0);
+		filesSite.setMaxLatency(0);
+		filesSite.setFileSize(FILE_SIZE, FILE_SIZE);
+		filesSite.start();
+		final String splitThreshold = Env.getSetting(Env.DOWNLOAD_REMAIN_SPLIT_THRESHOLD);
+		final String bufferSize = Env.getSetting(Env.DOWNLOAD_BUFFER_SIZE);
+		Env.putSetting(Env.CHECK_VERIFY_ONLY, false);
+		Env.putSetting(Env.DOWNLOAD_KEEP_FILES, true);
+		Env.putSetting(Env.DOWNLOAD_REMAIN_SPLIT_THRESHOLD, STEAL_SIZE);
+		Env.putSetting(Env.DOWNLOAD_BUFFER_SIZE, STEAL_SIZE);
+		// count the stolen blocks from the log
+		final AtomicInteger splitCount = new AtomicInteger();
+		final Handler splitCounter = new Handler() {
+			public void publish(LogRecord record) {
+				if (record.getMessage() != null && record.getMessage().contains(" is splited to ")) {
+					splitCount.incrementAndGet();
+				}
+			}
+			public void flush() {
+			}
+			public void close() {
+			}
+		};
+		Env.getLogger().setUseParentHandlers(false);
+		Env.getLogger().addHandler(splitCounter);
+		Env.getLogger().setLevel(Level.INFO);
+		keptSite = filesSite;
+		keptDir = tmpDir;
+		final RunResult result;
+		try {
+			result = check(filesSite.getBaseUrl() + "/page/0.html", DOWNLOAD_THREADS);
+		} finally {
+			keptSite = null;
+			keptDir = null;
+			filesSite.stop();
+			Env.getLogger().setLevel(Level.OFF);
+			Env.getLogger().removeHandler(splitCounter);
+			Env.getLogger().setUseParentHandlers(true);
+			Env.putSetting(Env.DOWNLOAD_KEEP_FILES, false);
+			Env.putSetting(Env.DOWNLOAD_REMAIN_SPLIT_THRESHOLD, splitThreshold);
+			Env.putSetting(Env.DOWNLOAD_BUFFER_SIZE, bufferSize);
+			Env.putSetting(Env.CHECK_VERIFY_ONLY, true);
+		}
+		final List<String> expected = new ArrayList<String>();
+		for (String url : filesSite.getWorkingLinks().keySet()) {
+			if (!url.endsWith(".html")) {
+				// the page is checked, not kept
+				expected.add(md5(filesSite.getBody(url)));
+			}
+		}
+		final List<String> kept = getKeptFiles(tmpDir);
+		Collections.sort(expected);
+		Collections.sort(kept);
+		boolean passed = result.finished && result.brokenLinks.isEmpty() && result.incompleteLinks.isEmpty();
+		String reason = describe(result);
+		if (passed && !kept.equals(expected)) {
+			passed = false;
+			reason = kept.size() + " kept files, " + expected.size() + " expected, the contents do not match";
+		}
+		System.out.println(String.format("Download %d files of %d KB: %s, %d blocks stolen%s", FILE_COUNT, FILE_SIZE / 1024,
+				describeStatistics(result), splitCount.get(), passed ? "" : " FAILED, " + reason));
+		return passed;
+	}
+
+	/**
+	 * Check if the served file of given link is kept completely
+	 */
+	private boolean isKept(String link) throws Exception {
+		final byte[] body = keptSite.getBody(link);
+		return body == null || link.endsWith(".html") || getKeptFiles(keptDir).contains(md5(body));
+	}
+
+	/**
+	 * Return the MD5 of each kept file in given directory
+	 */
+	private static List<String> getKeptFiles(File dir) throws Exception {
+		final List<String> kept = new ArrayList<String>();
+		for (File file : dir.listFiles()) {
+			if (file.getName().startsWith("LinkChk")) {
+				kept.add(md5(file));
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * Download a link whose body stops after the first KB, the reads must time out and the link is broken
+	 */
+	private boolean stalledLink(String transport) throws InterruptedException {
+		final String defaultTransport = Env.getSetting(Env.HTTP_TRANSPORT);
+		final String readTimeout = Env.getSetting(Env.READ_TIMEOUT);
+		final String maxFailures = Env.getSetting(Env.MAX_FAILURES_COUNT);
+		Env.putSetting(Env.CHECK_VERIFY_ONLY, false);
+		Env.putSetting(Env.READ_TIMEOUT, STALL_READ_TIMEOUT);
+		Env.putSetting(Env.MAX_FAILURES_COUNT, 2);
+		Env.putSetting(Env.HTTP_TRANSPORT, transport);
+		final RunResult result;
+		try {
+			result = check(site.getStallUrl(), threads);
+		} finally {
+			Env.putSetting(Env.READ_TIMEOUT, readTimeout);
+			Env.putSetting(Env.MAX_FAILURES_COUNT, maxFailures);
+			Env.putSetting(Env.HTTP_TRANSPORT, defaultTransport);
+			Env.putSetting(Env.CHECK_VERIFY_ONLY, true);
+		}
+		final boolean passed = result.finished && result.brokenLinks.size() == 1 && result.brokenLinks.get(0).endsWith("/stall");
+		System.out.println(String.format("Stalled link (%s): broken in %d ms%s", transport, result.time, passed ? "" : " FAILED, " + describe(result)));
+		return passed;
+	}
+
+	/**
+	 * Check the links of given page, wait at most RUN_TIMEOUT
+	 */
+	private RunResult check(final String url, int threads) throws InterruptedException {
+		final RunResult result = new RunResult();
+		final CountDownLatch done = new CountDownLatch(1);
+		final LinkCheckerCore core = new LinkCheckerCore(url, threads);
+		core.addCoreStateListener(new CoreStateListener() {
+			public void linkCheckFailed(FileInfo info) {
+				result.brokenLinks.add(info.getUrl());
+			}
+			public void linkCheckPassed(FileInfo info) {
+				try {
+					if (keptDir != null && !isKept(info.getUrl())) {
+						result.incompleteLinks.add(info.getUrl());
+					}
+				} catch (Exception e) {
+					result.incompleteLinks.add(info.getUrl() + " (" + e.getMessage() + ")");
+				}
+			}
+			public void linkDownloading(FileInfo info) {
+				// progress is not shown
+			}
+			public void allLinksChecked() {
+				done.countDown();
+			}
+			public void inputURLBroken() {
+				result.brokenLinks.add(url);
+				done.countDown();
+			}
+			public void noLinkFound() {
+				done.countDown();
+			}
+		});
+		final long startTime = System.currentTimeMillis();
+		core.start();
+		result.finished = done.await(RUN_TIMEOUT, TimeUnit.MILLISECONDS);
+		result.time = System.currentTimeMillis() - startTime;
+		core.getRunStatistics().sampleHeapSize();
+		core.stop();
+		result.core = core;
+		return result;
+	}
+
+	private static String describeStatistics(RunResult result) {
+		final RunStatistics stats = result.core.getRunStatistics();
+		final double seconds = Math.max(result.time, 1) / 1000.0;
+		return String.format("%d links in %.1f s, %.0f links/s, %.0f KB/s, p50 %d ms, p99 %d ms, peak heap %d MB",
+				stats.getLinksCount(), seconds, stats.getLinksCount() / seconds, result.core.getDownloadSize() / 1024.0 / seconds,
+				stats.getLatencyPercentile(50), stats.getLatencyPercentile(99), stats.getPeakHeapSize() / 1024 / 1024);
+	}
+
+	private static String describe(RunResult result) {
+		if (!result.finished) {
+			return "not finished in " + RUN_TIMEOUT + " ms";
+		}
+		if (!result.incompleteLinks.isEmpty()) {
+			return result.incompleteLinks.size() + " links passed before downloaded completely, first " + result.incompleteLinks.get(0);
+		}
+		return result.brokenLinks.size() + " broken links" + (result.brokenLinks.isEmpty() ? "" : ", first " + result.brokenLinks.get(0));
+	}
+
+	private static String md5(byte[] data) throws Exception {
+		final MessageDigest digest = MessageDigest.getInstance("MD5");
+		return toHex(digest.digest(data));
+	}
+
+	private static String md5(File file) throws Exception {
+		final MessageDigest digest = MessageDigest.getInstance("MD5");
+		final InputStream in = new FileInputStream(file);
+		try {
+			final byte[] buffer = new byte[65536];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, count);
+			}
+		} finally {
+			in.close();
+		}
+		return toHex(digest.digest());
+	}
+
+	private static String toHex(byte[] bytes) {
+		final StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b & 0xff));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,468 @@
+/**
+ *  SyntheticSite is a local web site served by the embedded HTTP server of the JDK, generated from a seed:
+ *  an index page links N pages, each page links M resources and some earlier pages.
+ *  The resources have a mix of sizes and status codes (404, 410, 500, 503 and redirects), added latency,
+ *  connections reset before the first response, slow bodies, and ranged responses cut in the middle once.
+ *  The same seed always gives the same site, so the expected counts and sizes of a check are known.
+ *  A stalled link (/stall.html links /stall) sends one KB and then stops until the site is stopped.
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class SyntheticSite {
+
+	private static final int CHUNK_SIZE = 16384;	// the body is written in chunks, so the downloads overlap
+	private static final int SLOW_CHUNK_SIZE = 1024;
+	private static final int SLOW_CHUNK_DELAY = 10;
+	private static final int MAX_SLOW_SIZE = 64 * 1024;	// a slow body takes at most 640 ms
+	private static final int[] BROKEN_STATUS = new int[]{404, 410, 500, 503};
+
+	/**
+	 * A file of the site and how it is served
+	 */
+	private static class Resource {
+		final int id;
+		final String path;
+		int size;
+		int status = 200;
+		int latency;				// ms before the response
+		boolean reset;				// the first request is dropped without a response
+		boolean truncated;			// the first ranged response stops in the middle
+		boolean slow;				// the body is sent slowly
+		Resource target;			// the target of a redirect
+		byte[] content;				// the HTML of a page, null if the data is generated
+
+		Resource(int id, String path) {
+			this.id = id;
+			this.path = path;
+		}
+	}
+
+	private final int pagesCount;
+	private final int linksPerPage;
+	private final long seed;
+
+	private int brokenPercent = 5;
+	private int redirectPercent = 5;
+	private int resetPercent = 2;
+	private int slowPercent = 2;
+	private int truncatedPercent = 2;
+	private int maxLatency = 20;
+	private int minFileSize = 0;	// 0 if the sizes are mixed
+	private int maxFileSize = 0;
+
+	private final Map<String, Resource> resources = new HashMap<String, Resource>();
+	private final List<Resource> links = new ArrayList<Resource>();		// the linked resources and pages
+	private final ConcurrentMap<String, AtomicInteger> requestCounts = new ConcurrentHashMap<String, AtomicInteger>();
+	private final AtomicInteger requestCount = new AtomicInteger();
+
+	private HttpServer server;
+	private String baseUrl;
+	private final CountDownLatch stopped = new CountDownLatch(1);	// released when the stalled responses can end
+
+	/**
+	 * Create the site, set the mix before it is started
+	 *
+	 * @param pages
+	 * 		the number of pages linked by the index page
+	 * @param linksPerPage
+	 * 		the number of resources linked by each page
+	 * @param seed
+	 */
+	public SyntheticSite(int pages, int linksPerPage, long seed) {
+		super();
+		this.pagesCount = pages;
+		this.linksPerPage = linksPerPage;
+		this.seed = seed;
+	}
+
+	public void setBrokenPercent(int brokenPercent) {
+		this.brokenPercent = brokenPercent;
+	}
+
+	public void setRedirectPercent(int redirectPercent) {
+		this.redirectPercent = redirectPercent;
+	}
+
+	public void setResetPercent(int resetPercent) {
+		this.resetPercent = resetPercent;
+	}
+
+	public void setSlowPercent(int slowPercent) {
+		this.slowPercent = slowPercent;
+	}
+
+	public void setTruncatedPercent(int truncatedPercent) {
+		this.truncatedPercent = truncatedPercent;
+	}
+
+	public void setMaxLatency(int maxLatency) {
+		this.maxLatency = maxLatency;
+	}
+
+	/**
+	 * Give all files a size in given range, instead of the mix of small, medium and large files
+	 *
+	 * @param min
+	 * @param max
+	 */
+	public void setFileSize(int min, int max) {
+		this.minFileSize = min;
+		this.maxFileSize = max;
+	}
+
+	/**
+	 * Generate the site and start the server on a free port of the loopback
+	 *
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1000);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					serve(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+		generate();
+		server.start();
+	}
+
+	public void stop() {
+		stopped.countDown();
+		server.stop(0);
+		((ExecutorService)server.getExecutor()).shutdownNow();
+	}
+
+	/**
+	 * The pages link the pages before them only, the index page has linked those pages already,
+	 * so each page is found at the same depth whatever the order of the checks
+	 */
+	private void generate() throws IOException {
+		final Random random = new Random(seed);
+		final List<Resource> pages = new ArrayList<Resource>();
+		for (int i = 0; i < pagesCount; i ++) {
+			final Resource page = new Resource(resources.size(), "/page/" + i + ".html");
+			page.latency = maxLatency > 0 ? random.nextInt(maxLatency + 1) : 0;
+			pages.add(page);
+			resources.put(page.path, page);
+			links.add(page);
+		}
+		final StringBuilder index = new StringBuilder("<html><head><title>Synthetic site</title></head><body>\n");
+		for (Resource page : pages) {
+			index.append("<a href=\"").append(page.path).append("\">").append(page.path).append("</a><br>\n");
+		}
+		index.append("</body></html>\n");
+		final Resource indexPage = new Resource(resources.size(), "/index.html");
+		indexPage.content = index.toString().getBytes("ISO-8859-1");
+		indexPage.size = indexPage.content.length;
+		resources.put(indexPage.path, indexPage);
+
+		for (int i = 0; i < pagesCount; i ++) {
+			final StringBuilder page = new StringBuilder("<html><head><title>Page " + i + "</title></head><body>\n");
+			for (int j = 0; j < linksPerPage; j ++) {
+				final Resource file = newFile("/res/" + i + "/" + j, random);
+				links.add(file);
+				// the links are absolute or relative to the page
+				final String href = j % 2 == 0 ? baseUrl + file.path : ".." + file.path;
+				page.append("<p><a href=\"").append(href).append("\">File ").append(j).append("</a></p>\n");
+				if (i > 0 && random.nextInt(4) == 0) {
+					page.append("<a href='").append(pages.get(random.nextInt(i)).path).append("'>Back</a>\n");
+				}
+			}
+			page.append("</body></html>\n");
+			final Resource resource = pages.get(i);
+			resource.content = page.toString().getBytes("ISO-8859-1");
+			resource.size = resource.content.length;
+		}
+
+		final Resource stallPage = new Resource(resources.size(), "/stall.html");
+		stallPage.content = ("<html><body><a href=\"/stall\">stall</a></body></html>\n").getBytes("ISO-8859-1");
+		stallPage.size = stallPage.content.length;
+		resources.put(stallPage.path, stallPage);
+		final Resource stall = new Resource(resources.size(), "/stall");
+		stall.size = 1024 * 1024;
+		resources.put(stall.path, stall);
+	}
+
+	private Resource newFile(String path, Random random) {
+		final Resource file = new Resource(resources.size(), path);
+		resources.put(path, file);
+		file.latency = maxLatency > 0 ? random.nextInt(maxLatency + 1) : 0;
+		file.size = nextSize(random);
+		final int kind = random.nextInt(100);
+		if (kind < brokenPercent) {
+			file.status = BROKEN_STATUS[random.nextInt(BROKEN_STATUS.length)];
+			return file;
+		}
+		if (kind < brokenPercent + redirectPercent) {
+			file.status = 301;
+			file.target = new Resource(resources.size(), path + "/moved");
+			file.target.size = file.size;
+			resources.put(file.target.path, file.target);
+			return file;
+		}
+		file.reset = random.nextInt(100) < resetPercent;
+		file.slow = file.size <= MAX_SLOW_SIZE && random.nextInt(100) < slowPercent;
+		file.truncated = random.nextInt(100) < truncatedPercent;
+		return file;
+	}
+
+	/**
+	 * Most files are small, some are medium and a few are large
+	 */
+	private int nextSize(Random random) {
+		if (maxFileSize > 0) {
+			return minFileSize + random.nextInt(maxFileSize - minFileSize + 1);
+		}
+		final int kind = random.nextInt(100);
+		if (kind < 80) {
+			return 512 + random.nextInt(8 * 1024 - 512);
+		} else if (kind < 98) {
+			return 16 * 1024 + random.nextInt(112 * 1024);
+		}
+		return 512 * 1024 + random.nextInt(1536 * 1024);
+	}
+
+	public String getBaseUrl() {
+		return baseUrl;
+	}
+
+	public String getIndexUrl() {
+		return baseUrl + "/index.html";
+	}
+
+	public String getStallUrl() {
+		return baseUrl + "/stall.html";
+	}
+
+	/**
+	 * Return the number of links found when the index page is crawled 2 levels deep: the pages and their files
+	 */
+	public int getLinksCount() {
+		return links.size();
+	}
+
+	/**
+	 * Return the number of links that are broken, whatever the number of retries
+	 */
+	public int getBrokenLinksCount() {
+		int count = 0;
+		for (Resource link : links) {
+			if (link.status >= 400) {
+				count ++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Return the URL and size of each link that works, a redirected link has the size of its target
+	 */
+	public Map<String, Integer> getWorkingLinks() {
+		final Map<String, Integer> working = new HashMap<String, Integer>();
+		for (Resource link : links) {
+			if (link.status < 400) {
+				working.put(baseUrl + link.path, link.target != null ? link.target.size : link.size);
+			}
+		}
+		return working;
+	}
+
+	/**
+	 * Return the total size of the index page, the pages and the working files
+	 */
+	public long getTotalSize() {
+		long size = resources.get("/index.html").size;
+		for (Integer linkSize : getWorkingLinks().values()) {
+			size += linkSize;
+		}
+		return size;
+	}
+
+	/**
+	 * Return the total size of the index page and the pages, the data downloaded when the links are only verified
+	 */
+	public long getPagesSize() {
+		long size = resources.get("/index.html").size;
+		for (Resource link : links) {
+			if (link.content != null) {
+				size += link.size;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Return the body of given working link, a redirected link has the body of its target
+	 *
+	 * @param url
+	 * @return null if the URL is not a working link of the site
+	 */
+	public byte[] getBody(String url) {
+		Resource resource = url.startsWith(baseUrl) ? resources.get(url.substring(baseUrl.length())) : null;
+		if (resource == null || resource.status >= 400) {
+			return null;
+		}
+		if (resource.target != null) {
+			resource = resource.target;
+		}
+		if (resource.content != null) {
+			return resource.content;
+		}
+		final byte[] data = new byte[resource.size];
+		fill(resource, 0, data, 0, data.length);
+		return data;
+	}
+
+	/**
+	 * Return the number of requests served
+	 */
+	public int getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * The data of a file is generated from its id, different files have different data
+	 */
+	private static void fill(Resource resource, long position, byte[] buffer, int offset, int length) {
+		for (int i = 0; i < length; i ++) {
+			long x = (position + i + 1) * 0x9E3779B97F4A7C15L ^ (resource.id + 1) * 0xC2B2AE3D27D4EB4FL;
+			x ^= x >>> 29;
+			buffer[offset + i] = (byte)x;
+		}
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		requestCount.incrementAndGet();
+		final String path = exchange.getRequestURI().getPath();
+		final boolean head = "HEAD".equalsIgnoreCase(exchange.getRequestMethod());
+		final Resource resource = resources.get(path);
+		if (resource == null) {
+			exchange.sendResponseHeaders(404, -1);
+			return;
+		}
+		final int count = getRequestCount(path).incrementAndGet();
+		if (resource.latency > 0 && !sleep(resource.latency)) {
+			return;
+		}
+		if (resource.reset && count == 1) {
+			// the connection is closed without a response
+			return;
+		}
+		if (resource.status == 301) {
+			exchange.getResponseHeaders().set("Location", baseUrl + resource.target.path);
+			exchange.sendResponseHeaders(301, -1);
+			return;
+		}
+		if (resource.status >= 400) {
+			exchange.sendResponseHeaders(resource.status, -1);
+			return;
+		}
+		exchange.getResponseHeaders().set("Content-Type", resource.content != null ? "text/html" : "application/octet-stream");
+		exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+		int start = 0;
+		int end = resource.size - 1;
+		int status = 200;
+		final String range = exchange.getRequestHeaders().getFirst("Range");
+		if (range != null && range.startsWith("bytes=") && resource.size > 0) {
+			final String[] bounds = range.substring("bytes=".length()).split("-");
+			start = Integer.parseInt(bounds[0].trim());
+			if (bounds.length > 1 && bounds[1].trim().length() > 0) {
+				end = Math.min(Integer.parseInt(bounds[1].trim()), resource.size - 1);
+			}
+			status = 206;
+			exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + resource.size);
+		}
+		final int length = end - start + 1;
+		if (head) {
+			exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		exchange.sendResponseHeaders(status, length > 0 ? length : -1);
+		// the first ranged response of a truncated file ends in the middle, the stalled one after the first KB
+		int last = end;
+		if (resource.truncated && status == 206 && length > 1 && getRequestCount(path + " range").incrementAndGet() == 1) {
+			last = start + length / 2 - 1;
+		} else if (path.equals("/stall")) {
+			last = Math.min(start + 1023, end);
+		}
+		final OutputStream out = exchange.getResponseBody();
+		final byte[] buffer = new byte[CHUNK_SIZE];
+		int position = start;
+		while (position <= last) {
+			final int chunkSize = Math.min(resource.slow ? SLOW_CHUNK_SIZE : CHUNK_SIZE, last - position + 1);
+			if (resource.content != null) {
+				out.write(resource.content, position, chunkSize);
+			} else {
+				fill(resource, position, buffer, 0, chunkSize);
+				out.write(buffer, 0, chunkSize);
+			}
+			out.flush();
+			position += chunkSize;
+			if (resource.slow && !sleep(SLOW_CHUNK_DELAY)) {
+				return;
+			}
+		}
+		if (path.equals("/stall")) {
+			try {
+				stopped.await();
+			} catch (InterruptedException e) {
+				// stop
+			}
+			return;
+		}
+		if (last == end) {
+			out.close();
+		}
+		// a truncated response is closed by the exchange before all data is sent
+	}
+
+	private AtomicInteger getRequestCount(String key) {
+		AtomicInteger count = requestCounts.get(key);
+		if (count == null) {
+			final AtomicInteger newCount = new AtomicInteger();
+			count = requestCounts.putIfAbsent(key, newCount);
+			if (count == null) {
+				count = newCount;
+			}
+		}
+		return count;
+	}
+
+	private static boolean sleep(long time) {
+		try {
+			Thread.sleep(time);
+			return true;
+		} catch (InterruptedException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/**
+ *  DownloadThreadBenchmark measures the copy loop of DownloadThread, from a response body in memory to each kind of sink:
+ *  counted only (the files are not kept), written to a file, written to the mapped regions of a preallocated file,
+ *  and parsed for links as a page. The body returns at most 16 KB per read, as a socket does.
+ *  The 1 KB buffer is the smallest one allowed, close to the old loop that wrote and reported every kilobyte.
+ *  Usage: java xuan.yun.core.DownloadThreadBenchmark [file size in MB] [files]
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+
+import xuan.yun.core.intf.DownloadManager;
+import xuan.yun.core.intf.HttpTransport;
+import xuan.yun.core.intf.LinkCallback;
+
+public class DownloadThreadBenchmark {
+
+	private static final int ROUNDS = 5;	// the first round warms up the JIT
+
+	private static final int READ_SIZE = 16384;	// the most data a read of the body returns
+
+	/**
+	 * The sinks of the downloaded data
+	 */
+	private static enum Target {
+		COUNT, FILE, MAPPED, PAGE
+	}
+
+	/**
+	 * A body that returns the data of a byte array in small reads
+	 */
+	private static class SocketLikeStream extends ByteArrayInputStream {
+		SocketLikeStream(byte[] data, int offset, int length) {
+			super(data, offset, length);
+		}
+
+		public synchronized int read(byte[] b, int off, int len) {
+			return super.read(b, off, Math.min(len, READ_SIZE));
+		}
+	}
+
+	/**
+	 * Serve the same data for every URL, a request with a range gets the part of the data
+	 */
+	private static class MemoryTransport implements HttpTransport {
+		private final byte[] data;
+
+		MemoryTransport(byte[] data) {
+			this.data = data;
+		}
+
+		public TransportResponse send(String method, String url, Map<String, String> headers) throws IOException {
+			final Map<String, String> responseHeaders = new HashMap<String, String>();
+			final String range = headers.get("Range");
+			if (range == null) {
+				return new TransportResponse(200, responseHeaders, new SocketLikeStream(data, 0, data.length));
+			}
+			final String[] bounds = range.substring("bytes=".length()).split("-");
+			final int start = Integer.parseInt(bounds[0]);
+			final int end = Integer.parseInt(bounds[1]);
+			return new TransportResponse(206, responseHeaders, new SocketLikeStream(data, start, end + 1 - start));
+		}
+	}
+
+	/**
+	 * Hand the queued tasks to the thread and count the data
+	 */
+	private static class Manager implements DownloadManager {
+		private final LinkedList<DownloadTask> tasks = new LinkedList<DownloadTask>();
+		private final HttpTransport transport;
+		private final CountDownLatch exited = new CountDownLatch(1);
+		private volatile boolean running = true;
+		private long downloadSize = 0;
+		private int finishedCount = 0;
+		private int failedCount = 0;
+
+		Manager(HttpTransport transport) {
+			this.transport = transport;
+		}
+
+		public boolean isRunning() {
+			return running;
+		}
+
+		public HttpTransport getHttpTransport() {
+			return transport;
+		}
+
+		public synchronized DownloadTask requestForDownloadTask() {
+			if (tasks.isEmpty()) {
+				running = false;
+				return null;
+			}
+			return tasks.removeFirst();
+		}
+
+		public synchronized void addDownloadTask(DownloadTask task) {
+			tasks.add(task);
+		}
+
+		public synchronized void retryDownloadTask(DownloadTask task, long delay) {
+			failedCount ++;
+		}
+
+		public void releaseDownloadTask(DownloadTask task) {
+		}
+
+		public void onResponseReceived(String url, int statusCode, long latency) {
+		}
+
+		public void onRequestFailed(String url, IOException e) {
+		}
+
+		public synchronized void onDataDownloaded(DownloadTask task, int dataLength) {
+			downloadSize += dataLength;
+		}
+
+		public synchronized void onDownloadTaskFinished(DownloadTask task) {
+			finishedCount ++;
+		}
+
+		public synchronized void onDownloadTerminated(DownloadTask task) {
+			failedCount ++;
+		}
+
+		public void onDownloadThreadExit(DownloadThread thread) {
+			exited.countDown();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		final int fileSize = (args.length > 0 ? Integer.parseInt(args[0]) : 16) * 1024 * 1024;
+		final int files = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		Env.getLogger().setLevel(Level.WARNING);
+
+		final byte[] data = buildPage(fileSize);
+		final File dir = new File(System.getProperty("java.io.tmpdir"), "LinkChkBench" + System.currentTimeMillis());
+		dir.mkdirs();
+		System.out.println("Files: " + files + " of " + fileSize / 1024 / 1024 + " MB, " + READ_SIZE / 1024 + " KB per read");
+		boolean failed = false;
+		try {
+			for (int round = 0; round < ROUNDS && !failed; round ++) {
+				final StringBuilder sb = new StringBuilder("Round " + (round + 1) + ":");
+				for (int bufferSize : new int[]{1024, 65536}) {
+					for (Target target : Target.values()) {
+						final long time = run(data, files, bufferSize, target, dir);
+						if (time < 0) {
+							failed = true;
+							break;
+						}
+						sb.append(String.format(" %s/%dK %.0f MB/s,", target.name().toLowerCase(), bufferSize / 1024, (double)fileSize * files * 1e3 / 1024 / 1024 / (time / 1e6)));
+					}
+				}
+				System.out.println(sb.substring(0, sb.length() - 1) + (round == 0 ? " (warm up)" : ""));
+			}
+		} finally {
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	/**
+	 * Download the files with one pooled thread
+	 *
+	 * @return the time (ns) of the downloads, -1 if some data is lost
+	 */
+	private static long run(byte[] data, int files, int bufferSize, Target target, File dir) throws Exception {
+		Env.putSetting(Env.DOWNLOAD_BUFFER_SIZE, bufferSize);
+		final Manager manager = new Manager(new MemoryTransport(data));
+		final int[] linksCount = new int[1];
+		for (int i = 0; i < files; i ++) {
+			final String path = target == Target.FILE || target == Target.MAPPED ? new File(dir, "file" + i).getPath() : null;
+			final DownloadTask task = new DownloadTask("http://host.test/file" + i, path);
+			task.setFileSize(data.length);
+			task.setEnd(target == Target.FILE ? -1 : data.length - 1);
+			if (target == Target.FILE) {
+				new File(path).delete();
+			} else if (target == Target.MAPPED) {
+				final RandomAccessFile file = new RandomAccessFile(path, "rw");
+				file.setLength(data.length);
+				file.close();
+			} else if (target == Target.PAGE) {
+				task.setPageDepth(0);
+				task.setLinkExtractor(new LinkExtractor(new LinkCallback() {
+					public void linkFound(String link) {
+						linksCount[0] ++;
+					}
+				}));
+			}
+			manager.addDownloadTask(task);
+		}
+		final long startTime = System.nanoTime();
+		new DownloadThread(manager).start();
+		manager.exited.await();
+		final long time = System.nanoTime() - startTime;
+		final long expectedSize = (long)data.length * files;
+		if (manager.finishedCount != files || manager.failedCount > 0 || manager.downloadSize != expectedSize) {
+			System.out.println("FAILED: " + target + " with " + bufferSize + " bytes buffer, " + manager.finishedCount + " of " + files
+					+ " files finished, " + manager.failedCount + " failed, " + manager.downloadSize + " of " + expectedSize + " bytes");
+			return -1;
+		}
+		if (target == Target.PAGE && linksCount[0] == 0) {
+			System.out.println("FAILED: no link found in the pages");
+			return -1;
+		}
+		if ((target == Target.FILE || target == Target.MAPPED) && new File(dir, "file0").length() != data.length) {
+			System.out.println("FAILED: " + target + " file has " + new File(dir, "file0").length() + " of " + data.length + " bytes");
+			return -1;
+		}
+		return time;
+	}
+
+	/**
+	 * Build a page of given size, so that the same data serves as a file and as a page
+	 */
+	private static byte[] buildPage(int size) {
+		final byte[] data = new byte[size];
+		final byte[] line = "<p>Lorem ipsum dolor sit amet, <a href=\"/page.html\">consectetur</a> adipiscing elit.</p>\n".getBytes();
+		for (int i = 0; i < size; i ++) {
+			data[i] = line[i % line.length];
+		}
+		return data;
+	}
+}
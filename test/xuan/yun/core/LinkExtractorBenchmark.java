@@ -0,0 +1,116 @@
+/**
+ *  LinkExtractorBenchmark measures the parse throughput of LinkExtractor on multi-MB pages,
+ *  fed in chunks of the download buffer size as DownloadThread does.
+ *  A dense page is a long list of anchors, a sparse page is mostly text and other tags with a few anchors.
+ *  Usage: java xuan.yun.core.LinkExtractorBenchmark [page size in MB] [chunk size]
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.io.UnsupportedEncodingException;
+
+import xuan.yun.core.intf.LinkCallback;
+
+public class LinkExtractorBenchmark {
+
+	private static final int ROUNDS = 5;	// the first round warms up the JIT
+
+	public static void main(String[] args) throws Exception {
+		final int pageSize = (args.length > 0 ? Integer.parseInt(args[0]) : 8) * 1024 * 1024;
+		final int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : 65536;
+
+		final byte[] densePage = buildPage(pageSize, true);
+		final int denseLinks = countLinks(densePage);
+		final byte[] sparsePage = buildPage(pageSize, false);
+		final int sparseLinks = countLinks(sparsePage);
+		System.out.println("Page size: " + pageSize / 1024 / 1024 + " MB, chunk size: " + chunkSize
+				+ ", dense page: " + denseLinks + " links, sparse page: " + sparseLinks + " links");
+		boolean failed = false;
+		for (int round = 0; round < ROUNDS; round ++) {
+			final long dense = run(densePage, chunkSize, denseLinks);
+			final long sparse = run(sparsePage, chunkSize, sparseLinks);
+			// one byte per feed, the worst case of a slow server
+			final long tiny = run(densePage, 1, denseLinks);
+			if (dense < 0 || sparse < 0 || tiny < 0) {
+				failed = true;
+				break;
+			}
+			System.out.println(String.format("Round %d: dense page %.1f MB/s (%,.0f links/s), sparse page %.1f MB/s, dense page fed by byte %.1f MB/s%s",
+					round + 1, pageSize * 1e3 / 1024 / 1024 / (dense / 1e6), denseLinks * 1e9 / dense,
+					pageSize * 1e3 / 1024 / 1024 / (sparse / 1e6), pageSize * 1e3 / 1024 / 1024 / (tiny / 1e6), round == 0 ? " (warm up)" : ""));
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	/**
+	 * Parse the page in chunks
+	 *
+	 * @return the time (ns) to parse the page, -1 if the links found are not expected
+	 */
+	private static long run(byte[] page, int chunkSize, int expectedLinks) {
+		final int[] found = new int[1];
+		final LinkExtractor extractor = new LinkExtractor(new LinkCallback() {
+			public void linkFound(String link) {
+				found[0] ++;
+			}
+		});
+		final long startTime = System.nanoTime();
+		for (int offset = 0; offset < page.length; offset += chunkSize) {
+			extractor.feed(page, offset, Math.min(chunkSize, page.length - offset));
+		}
+		extractor.finish();
+		final long time = System.nanoTime() - startTime;
+		if (found[0] != expectedLinks) {
+			System.out.println("FAILED: " + found[0] + " of " + expectedLinks + " links found");
+			return -1;
+		}
+		return time;
+	}
+
+	/**
+	 * Build a page of given size, the anchors use all the quoting styles the extractor knows
+	 */
+	private static byte[] buildPage(int size, boolean dense) throws UnsupportedEncodingException {
+		final StringBuilder sb = new StringBuilder(size + 1024);
+		sb.append("<html><head><title>Benchmark</title><script>var a = '<a href=\"/not-a-link\">';</script></head><body>\n");
+		for (int i = 0; sb.length() < size - 64; i ++) {
+			if (dense) {
+				switch (i % 3) {
+				case 0:
+					sb.append("<a href=\"/page/").append(i).append(".html\">Page ").append(i).append("</a>\n");
+					break;
+				case 1:
+					sb.append("<A class='item' HREF='http://host").append(i % 100).append(".test/file").append(i).append("'>File</A>\n");
+					break;
+				default:
+					sb.append("<li><a href=/dir/").append(i).append("/ title=\"x\">Dir</a></li>\n");
+				}
+			} else {
+				if (i % 50 == 0) {
+					sb.append("<a href=\"/page/").append(i).append(".html\">Page ").append(i).append("</a>\n");
+				}
+				sb.append("<p class=\"text\">Lorem ipsum dolor sit amet, <b>consectetur</b> adipiscing elit, ")
+					.append("sed do eiusmod tempor incididunt ut labore et dolore magna aliqua.</p><!-- note <a href=\"/x\"> -->\n");
+			}
+		}
+		sb.append("</body></html>\n");
+		return sb.toString().getBytes("ISO-8859-1");
+	}
+
+	/**
+	 * Count the links of the page once, the count of each run must match it
+	 */
+	private static int countLinks(byte[] page) {
+		final int[] found = new int[1];
+		final LinkExtractor extractor = new LinkExtractor(new LinkCallback() {
+			public void linkFound(String link) {
+				found[0] ++;
+			}
+		});
+		extractor.feed(page, 0, page.length);
+		extractor.finish();
+		return found[0];
+	}
+}
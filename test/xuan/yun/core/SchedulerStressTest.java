@@ -0,0 +1,190 @@
+/**
+ *  SchedulerStressTest downloads fake files with many threads through TaskScheduler,
+ *  while the threads keep stealing the tails of the running tasks. It checks that every byte is downloaded exactly once,
+ *  each file is reported finished once and only when it is complete, and a host never gets more connections than allowed.
+ *  Usage: java xuan.yun.core.SchedulerStressTest [rounds] [threads]
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+public class SchedulerStressTest {
+
+	private static final int FILE_COUNT = 200;
+	private static final int FILE_SIZE = 64 * 1024;
+	private static final int HOST_COUNT = 8;
+	private static final int MAX_CONNECTIONS = 3;
+	private static final long ROUND_TIMEOUT = 60000;
+
+	private final TaskScheduler scheduler = new TaskScheduler(new HostPermits(MAX_CONNECTIONS, 0));
+
+	// the downloaded bytes of each file, each bit set once
+	private final ConcurrentMap<String, BitSet> coverages = new ConcurrentHashMap<String, BitSet>();
+	private final Set<String> finishedFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final ConcurrentMap<String, AtomicInteger> connections = new ConcurrentHashMap<String, AtomicInteger>();
+	private final List<DownloadTask> runningTasks = new CopyOnWriteArrayList<DownloadTask>();
+
+	private final List<String> errors = new CopyOnWriteArrayList<String>();
+	private final AtomicInteger splitCount = new AtomicInteger();
+	private final CountDownLatch allFinished = new CountDownLatch(FILE_COUNT);
+
+	public static void main(String[] args) throws Exception {
+		final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		final int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		Env.getLogger().setLevel(Level.WARNING);
+
+		boolean failed = false;
+		for (int round = 0; round < rounds && !failed; round ++) {
+			final SchedulerStressTest test = new SchedulerStressTest();
+			final long startTime = System.currentTimeMillis();
+			failed = !test.run(threads, round);
+			System.out.println("Round " + (round + 1) + ": " + test.finishedFiles.size() + " of " + FILE_COUNT + " files, "
+					+ test.splitCount.get() + " splits, " + (System.currentTimeMillis() - startTime) + " ms" + (failed ? " FAILED" : ""));
+			for (String error : test.errors.subList(0, Math.min(test.errors.size(), 20))) {
+				System.out.println("  " + error);
+			}
+		}
+		System.out.println(failed ? "FAILED" : "PASSED");
+		System.exit(failed ? 1 : 0);
+	}
+
+	private boolean run(int threads, final long seed) throws InterruptedException {
+		for (int i = 0; i < FILE_COUNT; i ++) {
+			final String url = "http://host" + (i % HOST_COUNT) + ".test/file" + i;
+			coverages.put(url, new BitSet(FILE_SIZE));
+			final DownloadTask task = new DownloadTask(url, null);
+			task.setFileSize(FILE_SIZE);
+			task.setEnd(FILE_SIZE - 1);
+			scheduler.add(task);
+		}
+		final List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i ++) {
+			final Random random = new Random(seed * 1000 + i);
+			final Thread worker = new Thread("Worker #" + i) {
+				public void run() {
+					try {
+						while (allFinished.getCount() > 0 && !isInterrupted()) {
+							final DownloadTask task = scheduler.poll(10);
+							if (task == null) {
+								// an idle thread steals the tail of a running task
+								steal(random);
+								continue;
+							}
+							download(task, random);
+						}
+					} catch (InterruptedException e) {
+						// stop
+					}
+				}
+			};
+			workers.add(worker);
+			worker.start();
+		}
+		if (!allFinished.await(ROUND_TIMEOUT, TimeUnit.MILLISECONDS)) {
+			errors.add("Timeout, " + allFinished.getCount() + " files not finished, " + scheduler.getQueuedCount() + " tasks queued");
+		}
+		for (Thread worker : workers) {
+			worker.interrupt();
+			worker.join();
+		}
+		return errors.isEmpty();
+	}
+
+	/**
+	 * Download the task in small chunks as DownloadThread does, and steal from the other tasks now and then
+	 */
+	private void download(DownloadTask task, Random random) {
+		final String host = HostScheduler.getHost(task.getUrl());
+		final int activeCount = getConnections(host).incrementAndGet();
+		if (activeCount > MAX_CONNECTIONS) {
+			errors.add(activeCount + " connections to " + host);
+		}
+		runningTasks.add(task);
+		try {
+			while (!task.isFinished()) {
+				final long position = task.getCurrent();
+				final int length = task.advance(1 + random.nextInt(4096));
+				if (length == 0) {
+					break;
+				}
+				cover(task.getUrl(), position, length);
+				if (random.nextInt(8) == 0) {
+					steal(random);
+				}
+				if (random.nextInt(16) == 0) {
+					Thread.yield();
+				}
+			}
+		} finally {
+			runningTasks.remove(task);
+			getConnections(host).decrementAndGet();
+			scheduler.release(task);
+		}
+		if (scheduler.finish(task)) {
+			final BitSet coverage = coverages.get(task.getUrl());
+			synchronized (coverage) {
+				if (coverage.cardinality() != FILE_SIZE) {
+					errors.add(task.getUrl() + " is finished with " + coverage.cardinality() + " of " + FILE_SIZE + " bytes");
+				}
+			}
+			if (finishedFiles.add(task.getUrl())) {
+				allFinished.countDown();
+			} else {
+				errors.add(task.getUrl() + " is finished twice");
+			}
+		}
+	}
+
+	private void steal(Random random) {
+		if (runningTasks.isEmpty()) {
+			return;
+		}
+		try {
+			final DownloadTask victim = runningTasks.get(random.nextInt(runningTasks.size()));
+			if (scheduler.split(victim, 1) != null) {
+				splitCount.incrementAndGet();
+			}
+		} catch (IndexOutOfBoundsException e) {
+			// the task is just finished
+		}
+	}
+
+	private void cover(String url, long position, int length) {
+		final BitSet coverage = coverages.get(url);
+		synchronized (coverage) {
+			final int from = (int)position;
+			final int overlap = coverage.get(from, from + length).cardinality();
+			if (overlap > 0) {
+				errors.add(url + ": " + overlap + " bytes at " + position + " are downloaded twice");
+			}
+			coverage.set(from, from + length);
+		}
+	}
+
+	private AtomicInteger getConnections(String host) {
+		AtomicInteger count = connections.get(host);
+		if (count == null) {
+			final AtomicInteger newCount = new AtomicInteger();
+			count = connections.putIfAbsent(host, newCount);
+			if (count == null) {
+				count = newCount;
+			}
+		}
+		return count;
+	}
+}
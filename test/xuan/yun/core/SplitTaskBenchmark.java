@@ -0,0 +1,153 @@
+/**
+ *  SplitTaskBenchmark measures DownloadTask.splitTask, alone and while the owner thread advances the task
+ *  as DownloadThread does and idle threads keep stealing its tail.
+ *  Usage: java xuan.yun.core.SplitTaskBenchmark [splits] [thieves]
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+public class SplitTaskBenchmark {
+
+	private static final int ROUNDS = 5;	// the first round warms up the JIT
+
+	private static final long FILE_SIZE = 1L << 40;	// large enough to be split 40 times
+
+	private static final int CHUNK_SIZE = 65536;	// the default download buffer size
+
+	public static void main(String[] args) throws Exception {
+		final int splits = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		final int thieves = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		Env.getLogger().setLevel(Level.WARNING);
+
+		System.out.println("Splits: " + splits + ", thieves: " + thieves);
+		boolean failed = false;
+		for (int round = 0; round < ROUNDS; round ++) {
+			final long single = runSingle(splits);
+			final long[] contended = runContended(splits, thieves);
+			if (single < 0 || contended == null) {
+				failed = true;
+				break;
+			}
+			System.out.println(String.format("Round %d: %.0f ns per split, with %d thieves %,.0f splits/s while the owner advances %.1f GB/s in %d KB chunks%s",
+					round + 1, (double)single / splits, thieves, splits * 1e9 / contended[0],
+					contended[1] / 1.073741824 / contended[0], CHUNK_SIZE / 1024, round == 0 ? " (warm up)" : ""));
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	private static DownloadTask newTask() {
+		final DownloadTask task = new DownloadTask("http://host.test/file", null);
+		task.setFileSize(FILE_SIZE);
+		task.setEnd(FILE_SIZE - 1);
+		return task;
+	}
+
+	/**
+	 * Split new tasks down to the minimum size, one thread
+	 *
+	 * @return the time (ns) of the splits, -1 if a split loses data
+	 */
+	private static long runSingle(int splits) {
+		long time = 0;
+		int count = 0;
+		while (count < splits) {
+			final DownloadTask task = newTask();
+			long splitSize = 0;
+			final long startTime = System.nanoTime();
+			DownloadTask tail;
+			while (count < splits && (tail = task.splitTask(1)) != null) {
+				splitSize += tail.getRemainSize();
+				count ++;
+			}
+			time += System.nanoTime() - startTime;
+			if (splitSize + task.getRemainSize() != FILE_SIZE) {
+				System.out.println("FAILED: " + (FILE_SIZE - splitSize - task.getRemainSize()) + " bytes lost by the splits");
+				return -1;
+			}
+		}
+		return time;
+	}
+
+	/**
+	 * The thieves split the tasks that the owner advances
+	 *
+	 * @return the time (ns) of the splits and the bytes advanced by the owner, null if some bytes are lost or counted twice
+	 */
+	private static long[] runContended(final int splits, int thieves) throws InterruptedException {
+		final AtomicLong splitCount = new AtomicLong();
+		final AtomicLong splitSize = new AtomicLong();
+		final AtomicLong advanced = new AtomicLong();
+		final DownloadTask[] current = new DownloadTask[]{newTask()};
+		final long[] totalSize = new long[]{FILE_SIZE};
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(thieves);
+		for (int i = 0; i < thieves; i ++) {
+			new Thread("Thief #" + i) {
+				public void run() {
+					try {
+						start.await();
+						while (splitCount.get() < splits) {
+							final DownloadTask task;
+							synchronized (current) {
+								task = current[0];
+							}
+							final DownloadTask tail = task.splitTask(1);
+							if (tail != null) {
+								splitSize.addAndGet(tail.getRemainSize());
+								splitCount.incrementAndGet();
+							} else {
+								synchronized (current) {
+									if (current[0] == task) {
+										// the task is too small, replace it with a new one
+										current[0] = newTask();
+										totalSize[0] += FILE_SIZE;
+									}
+								}
+							}
+						}
+					} catch (InterruptedException e) {
+						// stop
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		final Thread owner = new Thread("Owner") {
+			public void run() {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				while (done.getCount() > 0) {
+					final DownloadTask task;
+					synchronized (current) {
+						task = current[0];
+					}
+					advanced.addAndGet(task.advance(CHUNK_SIZE));
+				}
+			}
+		};
+		owner.start();
+		final long startTime = System.nanoTime();
+		start.countDown();
+		done.await();
+		final long time = System.nanoTime() - startTime;
+		owner.join();
+		// the stolen tails are not downloaded, the rest of each task is left in it
+		final long leftSize = current[0].getRemainSize();
+		final long[] result = new long[]{time, advanced.get()};
+		if (advanced.get() + splitSize.get() + leftSize > totalSize[0]) {
+			System.out.println("FAILED: " + (advanced.get() + splitSize.get() + leftSize - totalSize[0]) + " bytes counted twice");
+			return null;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,209 @@
+/**
+ *  TaskSchedulerBenchmark measures the dequeue throughput of TaskScheduler,
+ *  with many download workers taking, releasing and finishing queued tasks.
+ *  The old task pool (an ArrayList under one monitor with notifyAll) runs the same load as the baseline.
+ *  The last load queues all tasks on one host while the other hosts have work queued but no free connection,
+ *  the cost of a take must not grow with the busy hosts.
+ *  Usage: java xuan.yun.core.TaskSchedulerBenchmark [workers] [tasks] [hosts] [busy hosts]
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+public class TaskSchedulerBenchmark {
+
+	private static final int ROUNDS = 5;	// the first round warms up the JIT
+
+	/**
+	 * The operations of a task pool used by the download threads
+	 */
+	private static interface TaskPool {
+		void add(DownloadTask task);
+		DownloadTask poll(long timeout) throws InterruptedException;
+		void release(DownloadTask task);
+		boolean finish(DownloadTask task);
+		int getQueuedCount();
+	}
+
+	/**
+	 * The task pool that TaskScheduler replaced, as LinkCheckerCore had it
+	 */
+	private static class BaselinePool implements TaskPool {
+		private final List<DownloadTask> downloadTasks = new ArrayList<DownloadTask>();
+		private final Map<String, List<DownloadTask>> fileTasksMap = new HashMap<String, List<DownloadTask>>();
+
+		public void add(DownloadTask task) {
+			synchronized (downloadTasks) {
+				downloadTasks.add(task);
+				List<DownloadTask> tasks = fileTasksMap.get(task.getUrl());
+				if (tasks == null) {
+					tasks = new ArrayList<DownloadTask>();
+					fileTasksMap.put(task.getUrl(), tasks);
+				}
+				if (!tasks.contains(task)) {
+					tasks.add(task);
+				}
+				downloadTasks.notifyAll();
+			}
+		}
+
+		public DownloadTask poll(long timeout) throws InterruptedException {
+			synchronized (downloadTasks) {
+				if (downloadTasks.size() == 0) {
+					downloadTasks.wait(timeout);
+				}
+				return downloadTasks.size() == 0 ? null : downloadTasks.remove(0);
+			}
+		}
+
+		public void release(DownloadTask task) {
+			// no connection is counted
+		}
+
+		public boolean finish(DownloadTask task) {
+			synchronized (downloadTasks) {
+				final List<DownloadTask> tasks = fileTasksMap.get(task.getUrl());
+				tasks.remove(task);
+				return tasks.size() == 0;
+			}
+		}
+
+		public int getQueuedCount() {
+			synchronized (downloadTasks) {
+				return downloadTasks.size();
+			}
+		}
+	}
+
+	/**
+	 * TaskScheduler with the connections of each host limited by given permits
+	 */
+	private static class SchedulerPool implements TaskPool {
+		private final TaskScheduler scheduler;
+
+		private final HostPermits permits;
+
+		SchedulerPool(HostPermits permits) {
+			this.permits = permits;
+			scheduler = new TaskScheduler(permits);
+		}
+
+		public void add(DownloadTask task) {
+			scheduler.add(task);
+		}
+
+		public DownloadTask poll(long timeout) throws InterruptedException {
+			return scheduler.poll(timeout);
+		}
+
+		public void release(DownloadTask task) {
+			scheduler.release(task);
+		}
+
+		public boolean finish(DownloadTask task) {
+			return scheduler.finish(task);
+		}
+
+		public int getQueuedCount() {
+			return scheduler.getQueuedCount();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		final int workers = args.length > 0 ? Integer.parseInt(args[0]) : 24;
+		final int tasks = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		final int hosts = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		final int busyHosts = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+		Env.getLogger().setLevel(Level.WARNING);
+
+		System.out.println("Workers: " + workers + ", tasks: " + tasks + ", hosts: " + hosts + ", busy hosts: " + busyHosts);
+		boolean failed = false;
+		for (int round = 0; round < ROUNDS; round ++) {
+			// the old pool, no connection limit
+			final long baseline = run(new BaselinePool(), workers, tasks, hosts, 0);
+			// no connection limit, the scheduler itself is measured
+			final long unlimited = run(new SchedulerPool(new HostPermits(Integer.MAX_VALUE, 0)), workers, tasks, hosts, 0);
+			// the default politeness, at most 6 connections of each host
+			final long limited = run(new SchedulerPool(new HostPermits(6, 0)), workers, tasks, hosts, 0);
+			// one host free, the others at their limit
+			final long busy = run(new SchedulerPool(new HostPermits(6, 0)), workers, tasks, 1, busyHosts);
+			if (baseline < 0 || unlimited < 0 || limited < 0 || busy < 0) {
+				failed = true;
+				break;
+			}
+			System.out.println(String.format("Round %d: baseline pool %,.0f tasks/s, TaskScheduler %,.0f tasks/s (%.1fx), "
+					+ "with 6 connections per host %,.0f tasks/s, with %d busy hosts %,.0f tasks/s%s",
+					round + 1, tasks * 1e9 / baseline, tasks * 1e9 / unlimited, (double)baseline / unlimited, tasks * 1e9 / limited,
+					busyHosts, tasks * 1e9 / busy, round == 0 ? " (warm up)" : ""));
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	/**
+	 * Queue the tasks and let the workers drain them.
+	 * The busy hosts have all their connections taken and one task queued each, their tasks are not counted
+	 *
+	 * @return the time (ns) to drain the tasks, -1 if some tasks are lost
+	 */
+	private static long run(final TaskPool pool, int workers, final int tasks, int hosts, int busyHosts) throws InterruptedException {
+		for (int i = 0; i < busyHosts; i ++) {
+			final String url = "http://busy" + i + ".test/file";
+			final HostPermits permits = ((SchedulerPool)pool).permits;	// only the scheduler counts connections
+			while (permits.tryAcquire(HostScheduler.getHost(url)) == 0) {
+				// take all connections of the host
+			}
+			pool.add(new DownloadTask(url, null));
+		}
+		for (int i = 0; i < tasks; i ++) {
+			final DownloadTask task = new DownloadTask("http://host" + (i % hosts) + ".test/file" + i, null);
+			task.setEnd(0);
+			pool.add(task);
+		}
+		final AtomicInteger taken = new AtomicInteger();
+		final AtomicInteger finishedFiles = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(workers);
+		for (int i = 0; i < workers; i ++) {
+			new Thread("Worker #" + i) {
+				public void run() {
+					try {
+						start.await();
+						while (taken.get() < tasks) {
+							final DownloadTask task = pool.poll(10);
+							if (task == null) {
+								continue;
+							}
+							taken.incrementAndGet();
+							pool.release(task);
+							if (pool.finish(task)) {
+								finishedFiles.incrementAndGet();
+							}
+						}
+					} catch (InterruptedException e) {
+						// stop
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		final long startTime = System.nanoTime();
+		start.countDown();
+		done.await();
+		final long time = System.nanoTime() - startTime;
+		if (finishedFiles.get() != tasks || pool.getQueuedCount() != busyHosts) {
+			System.out.println("FAILED: " + finishedFiles.get() + " of " + tasks + " files finished, " + (pool.getQueuedCount() - busyHosts) + " tasks left");
+			return -1;
+		}
+		return time;
+	}
+}
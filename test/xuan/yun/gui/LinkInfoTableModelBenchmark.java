@@ -0,0 +1,179 @@
+/**
+ *  LinkInfoTableModelBenchmark measures LinkInfoTableModel.getValueAt with 10k and 100k rows.
+ *  The rows are found by a real core in a page of a local server, the core is stopped once all links are found.
+ *  The table reads the rows in order when it is scrolled, and reads a screen of rows at any position when it is repainted.
+ *  Usage: java xuan.yun.gui.LinkInfoTableModelBenchmark [rows...]
+ *
+ *  Author: Xuan Yun (gdxuanyun@yahoo.com)
+ *  All Rights Reserved
+ */
+package xuan.yun.gui;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+import xuan.yun.core.Env;
+import xuan.yun.core.LinkCheckerCore;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class LinkInfoTableModelBenchmark {
+
+	private static final int ROUNDS = 5;	// the first round warms up the JIT
+
+	private static final int SCREEN_ROWS = 40;	// the rows of a repaint
+
+	private static final int REPAINTS = 100000;
+
+	private static final long FIND_TIMEOUT = 120000;
+
+	public static void main(String[] args) throws Exception {
+		final int[] sizes = new int[args.length > 0 ? args.length : 2];
+		for (int i = 0; i < sizes.length; i ++) {
+			sizes[i] = args.length > 0 ? Integer.parseInt(args[i]) : (i == 0 ? 10000 : 100000);
+		}
+		Env.getLogger().setLevel(Level.OFF);
+		Env.putSetting(Env.LINK_CACHE_FILE, "");
+
+		final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 100);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				final String path = exchange.getRequestURI().getPath();
+				if (path.startsWith("/page")) {
+					final int rows = Integer.parseInt(path.substring("/page".length()));
+					final StringBuilder sb = new StringBuilder("<html><body>\n");
+					for (int i = 0; i < rows; i ++) {
+						sb.append("<a href=\"/link/").append(i).append("\">Link ").append(i).append("</a>\n");
+					}
+					sb.append("</body></html>\n");
+					final byte[] data = sb.toString().getBytes("ISO-8859-1");
+					exchange.getResponseHeaders().set("Content-Type", "text/html");
+					if ("HEAD".equals(exchange.getRequestMethod())) {
+						exchange.sendResponseHeaders(200, -1);
+					} else {
+						exchange.sendResponseHeaders(200, data.length);
+						final OutputStream out = exchange.getResponseBody();
+						out.write(data);
+						out.close();
+					}
+				} else {
+					exchange.sendResponseHeaders(200, -1);
+				}
+				exchange.close();
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+
+		boolean failed = false;
+		try {
+			for (int rows : sizes) {
+				final LinkCheckerCore core = findLinks("http://127.0.0.1:" + server.getAddress().getPort() + "/page" + rows, rows);
+				if (core == null) {
+					failed = true;
+					break;
+				}
+				final LinkInfoTableModel model = new LinkInfoTableModel(core);
+				if (model.getRowCount() != rows) {
+					System.out.println("FAILED: the model has " + model.getRowCount() + " of " + rows + " rows");
+					failed = true;
+					break;
+				}
+				for (int round = 0; round < ROUNDS; round ++) {
+					final long scroll = scroll(model);
+					final long repaint = repaint(model, new Random(round));
+					if (scroll < 0 || repaint < 0) {
+						failed = true;
+						break;
+					}
+					final long calls = (long)rows * model.getColumnCount();
+					System.out.println(String.format("%,d rows, round %d: scroll %.1f ns per cell, repaint %.1f us per screen of %d rows%s",
+							rows, round + 1, (double)scroll / calls, repaint / 1e3 / REPAINTS, SCREEN_ROWS, round == 0 ? " (warm up)" : ""));
+				}
+			}
+		} finally {
+			server.stop(0);
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	/**
+	 * Let the core find the links of the page, and stop it before all the links are checked
+	 *
+	 * @return the stopped core, null if the links are not found in time
+	 */
+	private static LinkCheckerCore findLinks(String url, int rows) throws InterruptedException {
+		final LinkCheckerCore core = new LinkCheckerCore(url);
+		core.start();
+		final long deadline = System.currentTimeMillis() + FIND_TIMEOUT;
+		while (core.getTotalLinksCount() < rows && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		core.stop();
+		if (core.getTotalLinksCount() != rows) {
+			System.out.println("FAILED: " + core.getTotalLinksCount() + " of " + rows + " links found");
+			return null;
+		}
+		return core;
+	}
+
+	/**
+	 * Read all cells in order
+	 *
+	 * @return the time (ns), -1 if a cell is missing
+	 */
+	private static long scroll(LinkInfoTableModel model) {
+		final int rows = model.getRowCount();
+		final int columns = model.getColumnCount();
+		int missing = 0;
+		final long startTime = System.nanoTime();
+		for (int row = 0; row < rows; row ++) {
+			for (int column = 0; column < columns; column ++) {
+				if (model.getValueAt(row, column) == null && column != 3) {
+					missing ++;
+				}
+			}
+		}
+		final long time = System.nanoTime() - startTime;
+		if (missing > 0) {
+			System.out.println("FAILED: " + missing + " cells missing");
+			return -1;
+		}
+		return time;
+	}
+
+	/**
+	 * Read a screen of rows at random positions
+	 *
+	 * @return the time (ns), -1 if a row is missing
+	 */
+	private static long repaint(LinkInfoTableModel model, Random random) {
+		final int rows = model.getRowCount();
+		final int columns = model.getColumnCount();
+		int missing = 0;
+		final long startTime = System.nanoTime();
+		for (int i = 0; i < REPAINTS; i ++) {
+			final int top = random.nextInt(Math.max(rows - SCREEN_ROWS, 1));
+			for (int row = top; row < top + SCREEN_ROWS && row < rows; row ++) {
+				for (int column = 0; column < columns; column ++) {
+					model.getValueAt(row, column);
+				}
+				if (model.getValueAt(row, 1) == null) {
+					missing ++;
+				}
+			}
+		}
+		final long time = System.nanoTime() - startTime;
+		if (missing > 0) {
+			System.out.println("FAILED: " + missing + " rows missing");
+			return -1;
+		}
+		return time;
+	}
+}